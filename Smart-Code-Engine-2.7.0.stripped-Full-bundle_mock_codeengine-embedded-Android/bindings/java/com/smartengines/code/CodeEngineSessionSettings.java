@@ -10,12 +10,26 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeEngineSessionSettings {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeEngineSessionSettings implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeEngineSessionSettings> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeEngineSessionSettings.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeEngineSessionSettings(cPtr);
+    }
+  };
 
   public CodeEngineSessionSettings(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +49,25 @@ public class CodeEngineSessionSettings {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeEngineSessionSettings(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public CodeEngineSessionSettings Clone() {
     long cPtr = jnicodeengineJNI.CodeEngineSessionSettings_Clone(swigCPtr, this);
     return (cPtr == 0) ? null : new CodeEngineSessionSettings(cPtr, true);
@@ -67,6 +85,18 @@ public class CodeEngineSessionSettings {
     return new StringsMapIterator(jnicodeengineJNI.CodeEngineSessionSettings_SettingsEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<StringsMapIterator> Settings() {
+    return new NativeRange<StringsMapIterator>() {
+      protected StringsMapIterator Begin() {
+        return SettingsBegin();
+      }
+
+      protected StringsMapIterator End() {
+        return SettingsEnd();
+      }
+    };
+  }
+
   public boolean HasOption(String option_name) {
     return jnicodeengineJNI.CodeEngineSessionSettings_HasOption(swigCPtr, this, option_name);
   }
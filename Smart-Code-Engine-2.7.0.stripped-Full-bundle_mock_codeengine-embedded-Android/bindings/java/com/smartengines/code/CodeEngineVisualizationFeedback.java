@@ -10,12 +10,26 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeEngineVisualizationFeedback {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeEngineVisualizationFeedback implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeEngineVisualizationFeedback> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeEngineVisualizationFeedback.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeEngineVisualizationFeedback(cPtr);
+    }
+  };
 
   public CodeEngineVisualizationFeedback(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +49,25 @@ public class CodeEngineVisualizationFeedback {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeEngineVisualizationFeedback(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   protected void swigDirectorDisconnect() {
     swigCMemOwn = false;
     delete();
@@ -58,11 +76,17 @@ public class CodeEngineVisualizationFeedback {
   public void swigReleaseOwnership() {
     swigCMemOwn = false;
     jnicodeengineJNI.CodeEngineVisualizationFeedback_change_ownership(this, swigCPtr, false);
+    if (swigCleanable != null) {
+      swigCleanable.Cancel();
+      swigCleanable = null;
+    }
   }
 
   public void swigTakeOwnership() {
     swigCMemOwn = true;
     jnicodeengineJNI.CodeEngineVisualizationFeedback_change_ownership(this, swigCPtr, true);
+    if (swigCleanable == null && swigCPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, swigCPtr, swigDeallocator);
   }
 
   public void FeedbackReceived(CodeEngineFeedbackContainer feedback_container) {
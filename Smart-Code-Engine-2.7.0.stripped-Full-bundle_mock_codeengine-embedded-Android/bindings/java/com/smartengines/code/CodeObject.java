@@ -10,12 +10,26 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeObject {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeObject implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeObject> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeObject.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeObject(cPtr);
+    }
+  };
 
   public CodeObject(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +49,25 @@ public class CodeObject {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeObject(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public CodeObject() {
     this(jnicodeengineJNI.new_CodeObject__SWIG_0(), true);
   }
@@ -174,6 +192,18 @@ public class CodeObject {
     return new QuadranglesMapIterator(jnicodeengineJNI.CodeObject_ComponentsEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<QuadranglesMapIterator> Components() {
+    return new NativeRange<QuadranglesMapIterator>() {
+      protected QuadranglesMapIterator Begin() {
+        return ComponentsBegin();
+      }
+
+      protected QuadranglesMapIterator End() {
+        return ComponentsEnd();
+      }
+    };
+  }
+
   public int GetFieldsCount() {
     return jnicodeengineJNI.CodeObject_GetFieldsCount(swigCPtr, this);
   }
@@ -202,6 +232,18 @@ public class CodeObject {
     return new CodeFieldsMapIterator(jnicodeengineJNI.CodeObject_FieldsEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<CodeFieldsMapIterator> Fields() {
+    return new NativeRange<CodeFieldsMapIterator>() {
+      protected CodeFieldsMapIterator Begin() {
+        return FieldsBegin();
+      }
+
+      protected CodeFieldsMapIterator End() {
+        return FieldsEnd();
+      }
+    };
+  }
+
   public int GetAttributesCount() {
     return jnicodeengineJNI.CodeObject_GetAttributesCount(swigCPtr, this);
   }
@@ -226,4 +268,16 @@ public class CodeObject {
     return new StringsMapIterator(jnicodeengineJNI.CodeObject_AttributesEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<StringsMapIterator> Attributes() {
+    return new NativeRange<StringsMapIterator>() {
+      protected StringsMapIterator Begin() {
+        return AttributesBegin();
+      }
+
+      protected StringsMapIterator End() {
+        return AttributesEnd();
+      }
+    };
+  }
+
 }
@@ -0,0 +1,262 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initializes selected internal engines of a lazily configured
+ * {@link CodeEngine} ahead of the first request.
+ *
+ * <p>With lazy configuration an internal engine is initialized by the
+ * first session using it, which makes the first request of each kind
+ * slow. Creating the engine with {@code lazy_configuration=false}
+ * initializes all internal engines, including the unused ones. A warm-up
+ * initializes just the listed ones: for each of them it spawns a session
+ * with only that engine enabled and processes a synthetic image, on a
+ * background thread. Readiness probes can wait for it with
+ * {@link #AwaitReady(long)}, and the time taken by each engine is
+ * reported.
+ *
+ * <p>Some engines load nothing unless one of their subtypes is enabled
+ * too. The warm-up enables the common barcode symbologies, the phone and
+ * card number text lines, all payment details types and all license plate
+ * countries present in the default settings. An engine for which none of
+ * these options exist is reported in {@link #GetErrors()}. To warm up the
+ * exact configuration served, pass a {@link SettingsProfile} per engine.
+ */
+public class EngineWarmUp {
+
+  private static final int IMAGE_WIDTH = 640;
+  private static final int IMAGE_HEIGHT = 480;
+
+  // Subtypes enabled for the engines which are idle without one; the text
+  // line types must belong to one group, see the code_text_line options
+  private static final String[] CODE_TEXT_LINE_TYPES = {
+    "phone_number", "phone_number_cis", "card_number"
+  };
+  private static final String[] PAYMENT_DETAILS_TYPES = {
+    "inn", "kpp", "rcbic", "rus_bank_account", "personal_account"
+  };
+  private static final String[] LICENSE_PLATE_COUNTRIES = {
+    "arm", "aze", "blr", "geo", "deu", "fra", "ita", "kz", "kgz", "mda", "rus", "tjk",
+    "are", "uzb"
+  };
+
+  private final CodeEngine engine;
+  private final String signature;
+  private final Set<CodeEngineType> engineTypes;
+  // Settings per engine type, the subtype defaults for the missing ones
+  private final Map<CodeEngineType, SettingsProfile> profiles;
+  private final CountDownLatch done = new CountDownLatch(1);
+  // Results per engine type, guarded by this
+  private final Map<CodeEngineType, Long> initTimes = new LinkedHashMap<CodeEngineType, Long>();
+  private final Map<CodeEngineType, Exception> errors =
+      new LinkedHashMap<CodeEngineType, Exception>();
+
+  private EngineWarmUp(CodeEngine engine, String signature, Set<CodeEngineType> engine_types,
+                       Map<CodeEngineType, SettingsProfile> profiles) {
+    this.engine = engine;
+    this.signature = signature;
+    this.engineTypes = new LinkedHashSet<CodeEngineType>(engine_types);
+    this.profiles = new LinkedHashMap<CodeEngineType, SettingsProfile>(profiles);
+  }
+
+  /**
+   * Starts warming up {@code engine_types} of {@code engine} on a
+   * background thread. The engine must outlive the warm-up.
+   */
+  public static EngineWarmUp Start(CodeEngine engine, String signature,
+                                   Set<CodeEngineType> engine_types) {
+    if (engine == null)
+      throw new IllegalArgumentException("engine is null");
+    if (engine_types == null)
+      throw new IllegalArgumentException("engine_types is null");
+    return Start(new EngineWarmUp(engine, signature, engine_types,
+                                  Collections.<CodeEngineType, SettingsProfile>emptyMap()));
+  }
+
+  /**
+   * Starts warming up the engine types of {@code profiles} of
+   * {@code engine}, each with the options of its profile. The engine must
+   * outlive the warm-up.
+   */
+  public static EngineWarmUp Start(CodeEngine engine, String signature,
+                                   Map<CodeEngineType, SettingsProfile> profiles) {
+    if (engine == null)
+      throw new IllegalArgumentException("engine is null");
+    if (profiles == null)
+      throw new IllegalArgumentException("profiles is null");
+    return Start(new EngineWarmUp(engine, signature, profiles.keySet(), profiles));
+  }
+
+  private static EngineWarmUp Start(final EngineWarmUp warm_up) {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        warm_up.Run();
+      }
+    }, "EngineWarmUp");
+    thread.setDaemon(true);
+    thread.start();
+    return warm_up;
+  }
+
+  /**
+   * Waits until every listed engine has been initialized or has failed.
+   *
+   * @return true if the warm-up completed within {@code timeout_ms} and no
+   *         engine failed
+   */
+  public boolean AwaitReady(long timeout_ms) throws InterruptedException {
+    return done.await(timeout_ms, TimeUnit.MILLISECONDS) && GetErrors().isEmpty();
+  }
+
+  public boolean IsDone() {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * Returns true if the warm-up completed and no engine failed.
+   */
+  public boolean IsReady() {
+    return IsDone() && GetErrors().isEmpty();
+  }
+
+  /**
+   * Time spent initializing {@code engine_type}, or -1 if it has not been
+   * initialized (yet).
+   */
+  public synchronized long GetInitTimeNanos(CodeEngineType engine_type) {
+    Long time = initTimes.get(engine_type);
+    return time == null ? -1 : time;
+  }
+
+  /**
+   * Initialization times of the engines initialized so far, in the order
+   * they were initialized.
+   */
+  public synchronized Map<CodeEngineType, Long> GetInitTimes() {
+    return Collections.unmodifiableMap(new LinkedHashMap<CodeEngineType, Long>(initTimes));
+  }
+
+  /**
+   * Failures of the engines which could not be initialized, including the
+   * engines not available in the configuration bundle.
+   */
+  public synchronized Map<CodeEngineType, Exception> GetErrors() {
+    return Collections.unmodifiableMap(new LinkedHashMap<CodeEngineType, Exception>(errors));
+  }
+
+  private void Run() {
+    try {
+      for (CodeEngineType engine_type : engineTypes) {
+        long start = System.nanoTime();
+        try {
+          if (!engine.IsEngineAvailable(engine_type))
+            throw new IllegalStateException(engine_type + " is not available in the bundle");
+          Process(engine_type);
+          synchronized (this) {
+            initTimes.put(engine_type, System.nanoTime() - start);
+          }
+        } catch (Exception e) {
+          synchronized (this) {
+            errors.put(engine_type, e);
+          }
+        }
+      }
+    } finally {
+      done.countDown();
+    }
+  }
+
+  private void Process(CodeEngineType engine_type) {
+    String prefix = OptionPrefix(engine_type);
+    SettingsProfile profile = profiles.get(engine_type);
+    CodeEngineSessionSettings settings =
+        profile != null ? profile.NewSettings(engine) : engine.GetDefaultSessionSettings();
+    Image image = null;
+    CodeEngineSession session = null;
+    try {
+      settings.SetOption(prefix + ".enabled", "true");
+      if (profile == null)
+        EnableSubtypes(settings, engine_type);
+      session = engine.SpawnSession(settings, signature);
+      image = SyntheticImage();
+      session.Process(image);
+    } finally {
+      if (session != null)
+        session.delete();
+      if (image != null)
+        image.delete();
+      settings.delete();
+    }
+  }
+
+  private static void EnableSubtypes(CodeEngineSessionSettings settings,
+                                     CodeEngineType engine_type) {
+    String prefix = OptionPrefix(engine_type);
+    if (engine_type.equals(CodeEngineType.CodeEngine_Barcode)) {
+      settings.SetOption("barcode.COMMON.enabled", "true");
+      return;
+    }
+    String[] subtypes;
+    if (engine_type.equals(CodeEngineType.CodeEngine_CodeTextLine))
+      subtypes = CODE_TEXT_LINE_TYPES;
+    else if (engine_type.equals(CodeEngineType.CodeEngine_PaymentDetails))
+      subtypes = PAYMENT_DETAILS_TYPES;
+    else if (engine_type.equals(CodeEngineType.CodeEngine_LicensePlate))
+      subtypes = LICENSE_PLATE_COUNTRIES;
+    else
+      return;
+    int enabled = 0;
+    for (String subtype : subtypes) {
+      String option = prefix + "." + subtype + ".enabled";
+      if (settings.HasOption(option)) {
+        settings.SetOption(option, "true");
+        ++enabled;
+      }
+    }
+    if (enabled == 0)
+      throw new IllegalStateException("No " + prefix + " subtypes to enable, pass a profile");
+  }
+
+  // Gray gradient with some structure for the detectors to look at
+  private static Image SyntheticImage() {
+    byte[] pixels = new byte[IMAGE_WIDTH * IMAGE_HEIGHT];
+    for (int y = 0; y < IMAGE_HEIGHT; ++y) {
+      for (int x = 0; x < IMAGE_WIDTH; ++x)
+        pixels[y * IMAGE_WIDTH + x] = (byte) (((x / 8) % 2 == 0 ? 64 : 192) + y % 32);
+    }
+    return Image.FromBuffer(pixels, IMAGE_WIDTH, IMAGE_HEIGHT, IMAGE_WIDTH, 1);
+  }
+
+  static String OptionPrefix(CodeEngineType engine_type) {
+    if (engine_type.equals(CodeEngineType.CodeEngine_Barcode))
+      return "barcode";
+    if (engine_type.equals(CodeEngineType.CodeEngine_CodeTextLine))
+      return "code_text_line";
+    if (engine_type.equals(CodeEngineType.CodeEngine_MRZ))
+      return "mrz";
+    if (engine_type.equals(CodeEngineType.CodeEngine_BankCard))
+      return "bank_card";
+    if (engine_type.equals(CodeEngineType.CodeEngine_PaymentDetails))
+      return "payment_details";
+    if (engine_type.equals(CodeEngineType.CodeEngine_LicensePlate))
+      return "license_plate";
+    if (engine_type.equals(CodeEngineType.CodeEngine_ShippingContainer))
+      return "shipping_container";
+    throw new IllegalArgumentException("Unknown engine type: " + engine_type);
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pending result of an asynchronous recognition call.
+ *
+ * <p>Besides the blocking {@link java.util.concurrent.Future} methods the
+ * outcome can be consumed with {@link #AddCallback(Callback)}, so callers
+ * never have to park a thread on {@link #get()}. A call can only be
+ * cancelled before its execution has started: the native Process() call
+ * cannot be interrupted, so {@link #cancel(boolean)} returns false once
+ * the recognition is under way.
+ */
+public class RecognitionFuture extends FutureTask<ResultSnapshot> {
+
+  /**
+   * Receives the outcome of a recognition call. Exactly one of the methods
+   * is called, either on the thread which completed the call or, if the
+   * call had already completed, on the thread adding the callback.
+   */
+  public interface Callback {
+    void OnResult(ResultSnapshot result);
+
+    /**
+     * Called with the failure cause: a {@link CancellationException} if the
+     * call was cancelled, a {@link java.util.concurrent.TimeoutException}
+     * if its deadline expired, a
+     * {@link java.util.concurrent.RejectedExecutionException} if it was
+     * not accepted, or the exception thrown by the recognition itself.
+     */
+    void OnError(Throwable error);
+  }
+
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private List<Callback> callbacks = new ArrayList<Callback>();
+
+  RecognitionFuture(Callable<ResultSnapshot> callable) {
+    super(callable);
+  }
+
+  /**
+   * Registers {@code callback} to be called once the call completes.
+   */
+  public void AddCallback(Callback callback) {
+    synchronized (this) {
+      if (callbacks != null) {
+        callbacks.add(callback);
+        return;
+      }
+    }
+    Notify(callback);
+  }
+
+  /**
+   * Returns true once the recognition has been picked up for execution.
+   */
+  public boolean IsStarted() {
+    return started.get();
+  }
+
+  /**
+   * Cancels the call if its execution has not started yet.
+   *
+   * @return true if the call will not be executed
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!started.compareAndSet(false, true))
+      return isCancelled();
+    return super.cancel(false);
+  }
+
+  @Override
+  public void run() {
+    if (started.compareAndSet(false, true))
+      super.run();
+  }
+
+  // Completes the call without running it, returns false if it had
+  // already started
+  boolean Fail(Throwable error) {
+    if (!started.compareAndSet(false, true))
+      return false;
+    setException(error);
+    return true;
+  }
+
+  @Override
+  protected void done() {
+    List<Callback> pending;
+    synchronized (this) {
+      pending = callbacks;
+      callbacks = null;
+    }
+    for (Callback callback : pending) {
+      try {
+        Notify(callback);
+      } catch (RuntimeException e) {
+        // A failing callback must not prevent the others from being called
+      }
+    }
+  }
+
+  private void Notify(Callback callback) {
+    ResultSnapshot result;
+    try {
+      result = get();
+    } catch (CancellationException e) {
+      callback.OnError(e);
+      return;
+    } catch (ExecutionException e) {
+      callback.OnError(e.getCause());
+      return;
+    } catch (InterruptedException e) {
+      // Unreachable, the call is complete
+      Thread.currentThread().interrupt();
+      callback.OnError(e);
+      return;
+    }
+    callback.OnResult(result);
+  }
+
+}
@@ -8,12 +8,27 @@
 
 package com.smartengines.common;
 
-public class ByteString {
-  private transient long swigCPtr;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class ByteString implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<ByteString> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(ByteString.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnisecommonJNI.delete_ByteString(cPtr);
+    }
+  };
 
   public ByteString(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -33,21 +48,25 @@ public class ByteString {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnisecommonJNI.delete_ByteString(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public ByteString() {
     this(jnisecommonJNI.new_ByteString__SWIG_0(), true);
   }
@@ -92,4 +111,35 @@ public class ByteString {
     return new MutableString(jnisecommonJNI.ByteString_GetHexString(swigCPtr, this), true);
   }
 
+  public byte[] GetBytes() {
+    MutableString base64 = GetBase64String();
+    try {
+      return Base64Codec.Decode(base64.GetCStr());
+    } finally {
+      base64.delete();
+    }
+  }
+
+  public int CopyToBuffer(byte[] out_buffer, int offset) {
+    MutableString base64 = GetBase64String();
+    try {
+      return Base64Codec.Decode(base64.GetCStr(), out_buffer, offset);
+    } finally {
+      base64.delete();
+    }
+  }
+
+  public int CopyTo(ByteBuffer out_buffer) {
+    if (out_buffer.hasArray() && !out_buffer.isReadOnly()) {
+      if (out_buffer.remaining() < GetLength())
+        throw new java.nio.BufferOverflowException();
+      int length = CopyToBuffer(out_buffer.array(), out_buffer.arrayOffset() + out_buffer.position());
+      out_buffer.position(out_buffer.position() + length);
+      return length;
+    }
+    byte[] bytes = GetBytes();
+    out_buffer.put(bytes);
+    return bytes.length;
+  }
+
 }
@@ -0,0 +1,265 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of the staging arrays frames of a fixed size, such as camera
+ * previews, are copied through, with a cap on the number of frames in use.
+ *
+ * <p>Frames are grouped by their width, height and pixel format. For each
+ * group the pool reuses the Java arrays pixel data is copied into on its
+ * way to the native side, so that a steady frame loop allocates no pixel
+ * arrays on the Java heap, and at most {@code max_images_per_format}
+ * frames exist at a time. A frame frees its slot however its native buffer
+ * is freed: by {@link #Delete(Image)}, by {@link Image#delete()}, e.g. by a
+ * {@code StreamingRecognizer} owning it, or by the garbage collector.
+ * Deleting frames once they have been processed lets the next frame in
+ * right away instead of waiting for a GC cycle.
+ *
+ * <pre>
+ * Image frame = pool.FromYUV(y_plane, u_plane, v_plane, dimensions);
+ * try {
+ *   session.Process(frame);
+ * } finally {
+ *   pool.Delete(frame);
+ * }
+ * </pre>
+ *
+ * <p>Native frames themselves are not reused: each frame gets a new buffer
+ * from the library, which has no entry point to refill an existing image.
+ */
+public class FrameStagingPool implements AutoCloseable {
+
+  private final int maxImagesPerFormat;
+  private final HashMap<Format, Group> groups = new HashMap<Format, Group>();
+  // Frames not freed yet; the frames themselves are not referenced, so
+  // that the cleaner can free them
+  private int inUseCount = 0;
+  private long acquiredCount = 0;
+  private boolean closed = false;
+
+  /**
+   * @param max_images_per_format number of frames of the same size and
+   *                              format which may be in use at a time;
+   *                              further requests wait until one is freed
+   */
+  public FrameStagingPool(int max_images_per_format) {
+    if (max_images_per_format <= 0)
+      throw new IllegalArgumentException("max_images_per_format must be positive");
+    this.maxImagesPerFormat = max_images_per_format;
+  }
+
+  /**
+   * Creates a frame from interleaved pixel data, waiting while the maximum
+   * number of frames of this format is in use.
+   */
+  public Image FromBuffer(ByteBuffer raw_data, int width, int height, int stride,
+                          ImagePixelFormat pixel_format, int bytes_per_channel)
+      throws InterruptedException {
+    Group group = Acquire(new Format(width, height, pixel_format.toString()));
+    byte[][] staging = null;
+    Image image = null;
+    try {
+      staging = group.TakeStaging(new int[] { stride * height }, raw_data);
+      image = Image.FromBufferExtended(staging[0], width, height, stride, pixel_format,
+                                       bytes_per_channel);
+      return Register(group, image);
+    } finally {
+      if (staging != null)
+        group.ReturnStaging(staging);
+      if (image == null)
+        group.slots.release();
+    }
+  }
+
+  /**
+   * Creates a frame from YUV planes, waiting if the maximum number of frames
+   * of this format is in use.
+   */
+  public Image FromYUV(ByteBuffer y_plane, ByteBuffer u_plane, ByteBuffer v_plane,
+                       YUVDimensions dimensions) throws InterruptedException {
+    Group group = Acquire(new Format(dimensions.getWidth(), dimensions.getHeight(),
+                                     dimensions.getType().toString()));
+    byte[][] staging = null;
+    Image image = null;
+    try {
+      // The padding after the last row may be missing from camera buffers
+      int height = dimensions.getHeight();
+      staging = group.TakeStaging(new int[] { dimensions.getY_plane_row_stride() * height,
+                                              dimensions.getU_plane_row_stride() * height,
+                                              dimensions.getV_plane_row_stride() * height },
+                                  y_plane, u_plane, v_plane);
+      image = Image.FromYUV(staging[0], staging[1], staging[2], dimensions);
+      return Register(group, image);
+    } finally {
+      if (staging != null)
+        group.ReturnStaging(staging);
+      if (image == null)
+        group.slots.release();
+    }
+  }
+
+  /**
+   * Deletes a frame obtained from this pool, freeing a slot for the next
+   * frame of its format; same as {@code image.delete()}. Shallow clones of
+   * the frame must not be used afterwards.
+   *
+   * @throws IllegalArgumentException if the frame was not obtained from
+   *         this pool or has been freed already
+   */
+  public void Delete(Image image) {
+    Runnable hook = image.GetReleaseHook();
+    if (!(hook instanceof Slot) || ((Slot) hook).pool != this)
+      throw new IllegalArgumentException("Image does not belong to this pool");
+    image.delete();
+  }
+
+  /**
+   * Number of frames obtained and not yet freed.
+   */
+  public synchronized int GetInUseCount() {
+    return inUseCount;
+  }
+
+  public synchronized long GetAcquiredCount() {
+    return acquiredCount;
+  }
+
+  /**
+   * Number of distinct frame sizes and formats seen.
+   */
+  public synchronized int GetFormatCount() {
+    return groups.size();
+  }
+
+  /**
+   * Drops the staging arrays. Frames still in use may be deleted
+   * afterwards; no frames can be obtained.
+   */
+  public synchronized void close() {
+    closed = true;
+    for (Group group : groups.values())
+      group.ClearStaging();
+  }
+
+  private Group Acquire(Format format) throws InterruptedException {
+    Group group;
+    synchronized (this) {
+      if (closed)
+        throw new IllegalStateException("Frame staging pool is closed");
+      group = groups.get(format);
+      if (group == null) {
+        group = new Group(maxImagesPerFormat);
+        groups.put(format, group);
+      }
+    }
+    group.slots.acquire();
+    return group;
+  }
+
+  private Image Register(Group group, Image image) {
+    if (image == null)
+      return null;
+    synchronized (this) {
+      inUseCount++;
+      acquiredCount++;
+    }
+    image.SetReleaseHook(new Slot(this, group));
+    return image;
+  }
+
+  private synchronized void Freed() {
+    inUseCount--;
+  }
+
+  // Slot of a frame, given back once its native buffer is freed
+  private static final class Slot implements Runnable {
+    final FrameStagingPool pool;
+    final Group group;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    Slot(FrameStagingPool pool, Group group) {
+      this.pool = pool;
+      this.group = group;
+    }
+
+    public void run() {
+      if (released.compareAndSet(false, true)) {
+        pool.Freed();
+        group.slots.release();
+      }
+    }
+  }
+
+  private static final class Format {
+    final int width;
+    final int height;
+    final String pixelFormat;
+
+    Format(int width, int height, String pixel_format) {
+      this.width = width;
+      this.height = height;
+      this.pixelFormat = pixel_format;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Format))
+        return false;
+      Format format = (Format) other;
+      return width == format.width && height == format.height &&
+          pixelFormat.equals(format.pixelFormat);
+    }
+
+    @Override
+    public int hashCode() {
+      return (width * 31 + height) * 31 + pixelFormat.hashCode();
+    }
+  }
+
+  private static final class Group {
+    final Semaphore slots;
+    // Staging arrays not in use, one array per plane
+    private final ArrayDeque<byte[][]> staging = new ArrayDeque<byte[][]>();
+
+    Group(int max_images) {
+      this.slots = new Semaphore(max_images);
+    }
+
+    // Copies the planes into staging arrays at least min_lengths long
+    byte[][] TakeStaging(int[] min_lengths, ByteBuffer... planes) {
+      byte[][] arrays;
+      synchronized (this) {
+        arrays = staging.pollFirst();
+      }
+      if (arrays == null || arrays.length != planes.length)
+        arrays = new byte[planes.length][];
+      for (int i = 0; i < planes.length; ++i) {
+        ByteBuffer plane = planes[i];
+        int length = Math.max(plane.remaining(), min_lengths[i]);
+        if (arrays[i] == null || arrays[i].length != length)
+          arrays[i] = new byte[length];
+        plane.duplicate().get(arrays[i], 0, plane.remaining());
+      }
+      return arrays;
+    }
+
+    synchronized void ReturnStaging(byte[][] arrays) {
+      staging.addFirst(arrays);
+    }
+
+    synchronized void ClearStaging() {
+      staging.clear();
+    }
+  }
+
+}
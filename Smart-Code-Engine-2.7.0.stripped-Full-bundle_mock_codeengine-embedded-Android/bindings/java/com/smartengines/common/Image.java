@@ -8,13 +8,29 @@
 
 package com.smartengines.common;
 
-public class Image {
-  private transient long swigCPtr;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class Image implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<Image> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(Image.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnisecommonJNI.delete_Image(cPtr);
+    }
+  };
 
   public Image(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
+    UpdateFootprint();
   }
 
   public static long getCPtr(Image obj) {
@@ -33,19 +49,72 @@ public class Image {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
+      }
+      swigCMemOwn = false;
+    }
+  }
+
+  public void close() {
     delete();
   }
 
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnisecommonJNI.delete_Image(swigCPtr);
+  // Runs hook once the native image is freed, by delete() or by the
+  // cleaner, or right away if it has been freed already
+  void SetReleaseHook(Runnable hook) {
+    NativeCleaner.Cleanable cleanable = swigCleanable;
+    if (cleanable == null || swigCPtr == 0)
+      hook.run();
+    else
+      cleanable.SetReleaseHook(hook);
+  }
+
+  Runnable GetReleaseHook() {
+    NativeCleaner.Cleanable cleanable = swigCleanable;
+    return cleanable == null ? null : cleanable.GetReleaseHook();
+  }
+
+  // Reports the pixel buffers owned by the image and its layers to the
+  // NativeMemoryTracker
+  private void UpdateFootprint() {
+    NativeCleaner.Cleanable cleanable = swigCleanable;
+    if (cleanable == null || !NativeMemoryTracker.IsTrackingFootprint())
+      return;
+    long bytes;
+    try {
+      bytes = OwnedBufferLength(this);
+    } catch (Exception e) {
+      // The footprint is advisory, keep the last known value
+      return;
+    }
+    try {
+      if (HasLayers()) {
+        for (ImagesMapIterator it : Layers())
+          bytes += OwnedBufferLength(it.GetValue());
       }
-      swigCPtr = 0;
+    } catch (Exception e) {
+      // Layers are not available in every build
     }
+    cleanable.SetFootprint(bytes);
+  }
+
+  private static long OwnedBufferLength(Image image) {
+    boolean owner = true;
+    try {
+      owner = image.IsMemoryOwner();
+    } catch (Exception e) {
+      // Count the buffer if ownership cannot be queried
+    }
+    return owner ? image.GetRequiredBufferLength() : 0;
   }
 
   public static int GetNumberOfPages(String image_filename) {
@@ -62,66 +131,175 @@ public class Image {
   }
 
   public static Image FromFile(String image_filename, int page_number, Size max_size) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromFile__SWIG_0(image_filename, page_number, Size.getCPtr(max_size), max_size);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromFile(String image_filename, int page_number) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromFile__SWIG_1(image_filename, page_number);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromFile(String image_filename) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromFile__SWIG_2(image_filename);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromFileBuffer(byte[] data, int page_number, Size max_size) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromFileBuffer__SWIG_0(data, page_number, Size.getCPtr(max_size), max_size);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromFileBuffer(byte[] data, int page_number) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromFileBuffer__SWIG_1(data, page_number);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromFileBuffer(byte[] data) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromFileBuffer__SWIG_2(data);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromBuffer(byte[] raw_data, int width, int height, int stride, int channels) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromBuffer(raw_data, width, height, stride, channels);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromBufferExtended(byte[] raw_data, int width, int height, int stride, ImagePixelFormat pixel_format, int bytes_per_channel) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromBufferExtended(raw_data, width, height, stride, pixel_format.swigValue(), bytes_per_channel);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromYUVBuffer(byte[] yuv_data, int width, int height) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromYUVBuffer(yuv_data, width, height);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromYUV(byte[] y_plane, byte[] u_plane, byte[] v_plane, YUVDimensions dimensions) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromYUV(y_plane, u_plane, v_plane, YUVDimensions.getCPtr(dimensions), dimensions);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
+  /**
+   * Creates an image from an encoded image file held in {@code data}.
+   *
+   * <p>This overload is a convenience, not an optimization: unless the
+   * buffer wraps a whole heap array, its remaining bytes are copied into a
+   * new heap array, which is then copied across JNI. The buffer position
+   * is not changed.
+   */
+  public static Image FromFileBuffer(ByteBuffer data, int page_number, Size max_size) {
+    return FromFileBuffer(BufferToArray(data, 0), page_number, max_size);
+  }
+
+  /**
+   * Same as {@link #FromFileBuffer(ByteBuffer, int, Size)}, copying
+   * {@code data} the same way.
+   */
+  public static Image FromFileBuffer(ByteBuffer data, int page_number) {
+    return FromFileBuffer(BufferToArray(data, 0), page_number);
+  }
+
+  /**
+   * Same as {@link #FromFileBuffer(ByteBuffer, int, Size)}, copying
+   * {@code data} the same way.
+   */
+  public static Image FromFileBuffer(ByteBuffer data) {
+    return FromFileBuffer(BufferToArray(data, 0));
+  }
+
+  /**
+   * Creates an image from raw pixel data.
+   *
+   * <p>This overload is a convenience, not an optimization: unless the
+   * buffer wraps a whole heap array, its remaining bytes are copied into a
+   * new heap array, which is then copied across JNI. The buffer position
+   * is not changed.
+   */
+  public static Image FromBuffer(ByteBuffer raw_data, int width, int height, int stride, int channels) {
+    return FromBuffer(BufferToArray(raw_data, 0), width, height, stride, channels);
+  }
+
+  /**
+   * Creates an image from raw pixel data of the given format.
+   *
+   * <p>This overload is a convenience, not an optimization: unless the
+   * buffer wraps a whole heap array, its remaining bytes are copied into a
+   * new heap array, which is then copied across JNI. The buffer position
+   * is not changed.
+   */
+  public static Image FromBufferExtended(ByteBuffer raw_data, int width, int height, int stride, ImagePixelFormat pixel_format, int bytes_per_channel) {
+    return FromBufferExtended(BufferToArray(raw_data, 0), width, height, stride, pixel_format, bytes_per_channel);
+  }
+
+  /**
+   * Creates an image from YUV data in a single buffer.
+   *
+   * <p>This overload is a convenience, not an optimization: unless the
+   * buffer wraps a whole heap array, its remaining bytes are copied into a
+   * new heap array, which is then copied across JNI. The buffer position
+   * is not changed.
+   */
+  public static Image FromYUVBuffer(ByteBuffer yuv_data, int width, int height) {
+    return FromYUVBuffer(BufferToArray(yuv_data, 0), width, height);
+  }
+
+  /**
+   * Creates an image from YUV planes such as those of an Android camera
+   * frame. The stride after the last row may be missing from the planes,
+   * so each plane is padded with zeros to row stride times height.
+   *
+   * <p>This overload is a convenience, not an optimization: unless a plane
+   * wraps a whole heap array of the padded size, it is copied into a new
+   * heap array, which is then copied across JNI. Frame loops can stage
+   * the planes through the reused arrays of a {@link FrameStagingPool}. The
+   * buffer positions are not changed.
+   */
+  public static Image FromYUV(ByteBuffer y_plane, ByteBuffer u_plane, ByteBuffer v_plane, YUVDimensions dimensions) {
+    int height = dimensions.getHeight();
+    return FromYUV(BufferToArray(y_plane, dimensions.getY_plane_row_stride() * height),
+                   BufferToArray(u_plane, dimensions.getU_plane_row_stride() * height),
+                   BufferToArray(v_plane, dimensions.getV_plane_row_stride() * height),
+                   dimensions);
+  }
+
+  // Returns the remaining bytes of buffer in an array of at least
+  // min_length bytes, padded with zeros. The backing array of a heap
+  // buffer holding exactly these bytes is returned without a copy. The
+  // buffer position is never changed.
+  private static byte[] BufferToArray(ByteBuffer buffer, int min_length) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+        buffer.array().length == buffer.remaining() && buffer.remaining() >= min_length)
+      return buffer.array();
+    byte[] array = new byte[Math.max(buffer.remaining(), min_length)];
+    buffer.duplicate().get(array, 0, buffer.remaining());
+    return array;
+  }
+
   public static Image FromBase64Buffer(String base64_buffer, int page_number, Size max_size) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromBase64Buffer__SWIG_0(base64_buffer, page_number, Size.getCPtr(max_size), max_size);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromBase64Buffer(String base64_buffer, int page_number) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromBase64Buffer__SWIG_1(base64_buffer, page_number);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public static Image FromBase64Buffer(String base64_buffer) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_FromBase64Buffer__SWIG_2(base64_buffer);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -147,6 +325,18 @@ public class Image {
     return new ImagesMapIterator(jnisecommonJNI.Image_LayersEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<ImagesMapIterator> Layers() {
+    return new NativeRange<ImagesMapIterator>() {
+      protected ImagesMapIterator Begin() {
+        return LayersBegin();
+      }
+
+      protected ImagesMapIterator End() {
+        return LayersEnd();
+      }
+    };
+  }
+
   public boolean HasLayer(String name) {
     return jnisecommonJNI.Image_HasLayer(swigCPtr, this, name);
   }
@@ -157,21 +347,26 @@ public class Image {
 
   public void RemoveLayer(String name) {
     jnisecommonJNI.Image_RemoveLayer(swigCPtr, this, name);
+    UpdateFootprint();
   }
 
   public void RemoveLayers() {
     jnisecommonJNI.Image_RemoveLayers(swigCPtr, this);
+    UpdateFootprint();
   }
 
   public void SetLayer(String name, Image image) {
     jnisecommonJNI.Image_SetLayer(swigCPtr, this, name, Image.getCPtr(image), image);
+    UpdateFootprint();
   }
 
   public void SetLayerWithOwnership(String name, Image image) {
     jnisecommonJNI.Image_SetLayerWithOwnership(swigCPtr, this, name, Image.getCPtr(image), image);
+    UpdateFootprint();
   }
 
   public Image CloneDeep() {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneDeep(swigCPtr, this);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -183,6 +378,7 @@ public class Image {
 
   public void Clear() {
     jnisecommonJNI.Image_Clear(swigCPtr, this);
+    UpdateFootprint();
   }
 
   public int GetRequiredBufferLength() {
@@ -219,36 +415,44 @@ public class Image {
 
   public void Resize(Size new_size) {
     jnisecommonJNI.Image_Resize(swigCPtr, this, Size.getCPtr(new_size), new_size);
+    UpdateFootprint();
   }
 
   public Image CloneResized(Size new_size) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneResized(swigCPtr, this, Size.getCPtr(new_size), new_size);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public void Crop(Quadrangle quad) {
     jnisecommonJNI.Image_Crop__SWIG_0(swigCPtr, this, Quadrangle.getCPtr(quad), quad);
+    UpdateFootprint();
   }
 
   public Image CloneCropped(Quadrangle quad) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneCropped__SWIG_0(swigCPtr, this, Quadrangle.getCPtr(quad), quad);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public void Crop(Quadrangle quad, Size size) {
     jnisecommonJNI.Image_Crop__SWIG_1(swigCPtr, this, Quadrangle.getCPtr(quad), quad, Size.getCPtr(size), size);
+    UpdateFootprint();
   }
 
   public Image CloneCropped(Quadrangle quad, Size size) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneCropped__SWIG_1(swigCPtr, this, Quadrangle.getCPtr(quad), quad, Size.getCPtr(size), size);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public void Crop(Rectangle rect) {
     jnisecommonJNI.Image_Crop__SWIG_2(swigCPtr, this, Rectangle.getCPtr(rect), rect);
+    UpdateFootprint();
   }
 
   public Image CloneCropped(Rectangle rect) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneCropped__SWIG_2(swigCPtr, this, Rectangle.getCPtr(rect), rect);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -271,11 +475,13 @@ public class Image {
   }
 
   public Image CloneMasked(Rectangle rect, int pixel_expand) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneMasked__SWIG_0(swigCPtr, this, Rectangle.getCPtr(rect), rect, pixel_expand);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public Image CloneMasked(Rectangle rect) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneMasked__SWIG_1(swigCPtr, this, Rectangle.getCPtr(rect), rect);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -293,11 +499,13 @@ public class Image {
   }
 
   public Image CloneMasked(Quadrangle quad, int pixel_expand) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneMasked__SWIG_2(swigCPtr, this, Quadrangle.getCPtr(quad), quad, pixel_expand);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public Image CloneMasked(Quadrangle quad) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneMasked__SWIG_3(swigCPtr, this, Quadrangle.getCPtr(quad), quad);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -323,26 +531,31 @@ public class Image {
   }
 
   public Image CloneFilled(Rectangle rect, int ch1, int ch2, int ch3, int ch4, int pixel_expand) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_0(swigCPtr, this, Rectangle.getCPtr(rect), rect, ch1, ch2, ch3, ch4, pixel_expand);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Rectangle rect, int ch1, int ch2, int ch3, int ch4) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_1(swigCPtr, this, Rectangle.getCPtr(rect), rect, ch1, ch2, ch3, ch4);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Rectangle rect, int ch1, int ch2, int ch3) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_2(swigCPtr, this, Rectangle.getCPtr(rect), rect, ch1, ch2, ch3);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Rectangle rect, int ch1, int ch2) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_3(swigCPtr, this, Rectangle.getCPtr(rect), rect, ch1, ch2);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Rectangle rect, int ch1) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_4(swigCPtr, this, Rectangle.getCPtr(rect), rect, ch1);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
@@ -368,26 +581,31 @@ public class Image {
   }
 
   public Image CloneFilled(Quadrangle quad, int ch1, int ch2, int ch3, int ch4, int pixel_expand) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_5(swigCPtr, this, Quadrangle.getCPtr(quad), quad, ch1, ch2, ch3, ch4, pixel_expand);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Quadrangle quad, int ch1, int ch2, int ch3, int ch4) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_6(swigCPtr, this, Quadrangle.getCPtr(quad), quad, ch1, ch2, ch3, ch4);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Quadrangle quad, int ch1, int ch2, int ch3) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_7(swigCPtr, this, Quadrangle.getCPtr(quad), quad, ch1, ch2, ch3);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Quadrangle quad, int ch1, int ch2) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_8(swigCPtr, this, Quadrangle.getCPtr(quad), quad, ch1, ch2);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
 
   public Image CloneFilled(Quadrangle quad, int ch1) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFilled__SWIG_9(swigCPtr, this, Quadrangle.getCPtr(quad), quad, ch1);
     return (cPtr == 0) ? null : new Image(cPtr, false);
   }
@@ -397,6 +615,7 @@ public class Image {
   }
 
   public Image CloneFlippedVertical() {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFlippedVertical(swigCPtr, this);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -406,6 +625,7 @@ public class Image {
   }
 
   public Image CloneFlippedHorizontal() {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneFlippedHorizontal(swigCPtr, this);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -415,15 +635,18 @@ public class Image {
   }
 
   public Image CloneRotated90(int times) {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneRotated90(swigCPtr, this, times);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
 
   public void AverageChannels() {
     jnisecommonJNI.Image_AverageChannels(swigCPtr, this);
+    UpdateFootprint();
   }
 
   public Image CloneAveragedChannels() {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneAveragedChannels(swigCPtr, this);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -433,6 +656,7 @@ public class Image {
   }
 
   public Image CloneInverted() {
+    NativeMemoryTracker.AwaitCapacity();
     long cPtr = jnisecommonJNI.Image_CloneInverted(swigCPtr, this);
     return (cPtr == 0) ? null : new Image(cPtr, true);
   }
@@ -463,6 +687,7 @@ public class Image {
 
   public void ForceMemoryOwner() {
     jnisecommonJNI.Image_ForceMemoryOwner(swigCPtr, this);
+    UpdateFootprint();
   }
 
   public void Serialize(Serializer serializer) {
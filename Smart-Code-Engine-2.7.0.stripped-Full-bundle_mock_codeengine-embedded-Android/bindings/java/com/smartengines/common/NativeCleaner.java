@@ -0,0 +1,225 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import com.smartengines.common.NativeLeakDetector.Leak;
+
+/**
+ * Reclaims the native memory of API objects which became unreachable
+ * without an explicit delete() or close().
+ *
+ * <p>Works like {@code java.lang.ref.Cleaner}, which is unavailable on Java 7
+ * and on older Android API levels: every owning wrapper registers its
+ * native pointer together with a deallocator, and a single daemon thread
+ * frees the pointer once the wrapper is phantom reachable. Unlike
+ * finalization the wrapper itself is not resurrected, so the native memory
+ * is released after the first GC cycle that discovers the wrapper.
+ *
+ * <p>Registrations are accounted by the {@link NativeMemoryTracker} under
+ * the class of their owner, and sampled by the {@link NativeLeakDetector}
+ * when it is enabled.
+ */
+public final class NativeCleaner {
+
+  /**
+   * Frees a native object given its pointer. Implementations must not
+   * reference the wrapper which owns the pointer.
+   */
+  public interface Deallocator {
+    void Deallocate(long cPtr);
+  }
+
+  /**
+   * Registration of a single native pointer. The pointer is deallocated at
+   * most once, either by Clean() or by the cleaner thread.
+   */
+  public static final class Cleanable extends PhantomReference<Object> {
+    private static final AtomicLongFieldUpdater<Cleanable> cPtrUpdater =
+        AtomicLongFieldUpdater.newUpdater(Cleanable.class, "cPtr");
+
+    private volatile long cPtr;
+    private final Deallocator deallocator;
+    private final Class<?> type;
+    // Allocation site recorded by the NativeLeakDetector, null if not sampled
+    private final Throwable site;
+    // Footprint reported to the tracker, -1 once released; guarded by this
+    private long footprint = 0;
+    // Run once the pointer is released, however that happens; guarded by
+    // this
+    private Runnable releaseHook;
+
+    private Cleanable(Object owner, long cPtr, Deallocator deallocator) {
+      super(owner, queue);
+      this.cPtr = cPtr;
+      this.deallocator = deallocator;
+      this.type = owner.getClass();
+      this.site = NativeLeakDetector.Sample();
+    }
+
+    /**
+     * Sets the approximate native footprint of the pointer, in bytes.
+     * Ignored once the pointer has been released.
+     */
+    public void SetFootprint(long bytes) {
+      if (bytes < 0)
+        throw new IllegalArgumentException("Footprint must be non-negative");
+      long delta;
+      synchronized (this) {
+        if (footprint < 0)
+          return;
+        delta = bytes - footprint;
+        footprint = bytes;
+      }
+      NativeMemoryTracker.Resized(type, delta);
+    }
+
+    public synchronized long GetFootprint() {
+      return Math.max(footprint, 0);
+    }
+
+    // Sets the hook run on release, or runs it now if the pointer has been
+    // released already
+    void SetReleaseHook(Runnable hook) {
+      synchronized (this) {
+        if (footprint >= 0) {
+          releaseHook = hook;
+          return;
+        }
+      }
+      hook.run();
+    }
+
+    synchronized Runnable GetReleaseHook() {
+      return releaseHook;
+    }
+
+    /**
+     * Deallocates the native pointer now and unregisters it.
+     */
+    public void Clean() {
+      long ptr = cPtrUpdater.getAndSet(this, 0);
+      if (ptr != 0) {
+        Unregister(this);
+        try {
+          deallocator.Deallocate(ptr);
+        } finally {
+          Release();
+        }
+      }
+    }
+
+    /**
+     * Unregisters the native pointer without deallocating it, e.g. when
+     * its ownership has been transferred to the native side.
+     */
+    public void Cancel() {
+      if (cPtrUpdater.getAndSet(this, 0) != 0) {
+        Unregister(this);
+        Release();
+      }
+    }
+
+    // Called by the cleaner thread once the owner is unreachable
+    private void Reclaim() {
+      long ptr = cPtrUpdater.getAndSet(this, 0);
+      if (ptr != 0) {
+        Leak leak = site != null ? new Leak(type, GetFootprint(), site) : null;
+        Unregister(this);
+        try {
+          deallocator.Deallocate(ptr);
+        } finally {
+          Release();
+        }
+        if (leak != null)
+          NativeLeakDetector.Reclaimed(leak);
+      }
+    }
+
+    private void Release() {
+      long bytes;
+      Runnable hook;
+      synchronized (this) {
+        bytes = footprint;
+        footprint = -1;
+        hook = releaseHook;
+        releaseHook = null;
+      }
+      NativeMemoryTracker.Unregistered(type, bytes);
+      if (hook != null)
+        hook.run();
+    }
+  }
+
+  private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+  // Keeps registered phantom references reachable until they are processed
+  private static final Set<Cleanable> registered =
+      Collections.newSetFromMap(new ConcurrentHashMap<Cleanable, Boolean>());
+
+  static {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        while (true) {
+          try {
+            ((Cleanable) queue.remove()).Reclaim();
+          } catch (InterruptedException e) {
+            // The cleaner thread lives as long as the process
+          } catch (Throwable e) {
+            // Deallocation failures must not stop the cleaner thread
+          }
+        }
+      }
+    }, "SmartEngines-NativeCleaner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private NativeCleaner() {
+  }
+
+  /**
+   * Registers {@code cPtr} to be deallocated once {@code owner} becomes
+   * phantom reachable.
+   */
+  public static Cleanable Register(Object owner, long cPtr, Deallocator deallocator) {
+    Cleanable cleanable = new Cleanable(owner, cPtr, deallocator);
+    registered.add(cleanable);
+    NativeMemoryTracker.Registered(cleanable.type);
+    return cleanable;
+  }
+
+  /**
+   * Returns the number of native pointers awaiting deallocation.
+   */
+  public static int GetRegisteredCount() {
+    return registered.size();
+  }
+
+  // Sampled registrations not deleted yet
+  static List<Leak> GetLiveSampled() {
+    List<Leak> leaks = new ArrayList<Leak>();
+    for (Cleanable cleanable : registered) {
+      if (cleanable.site != null && cleanable.cPtr != 0)
+        leaks.add(new Leak(cleanable.type, cleanable.GetFootprint(), cleanable.site));
+    }
+    return leaks;
+  }
+
+  private static void Unregister(Cleanable cleanable) {
+    cleanable.clear();
+    registered.remove(cleanable);
+  }
+
+}
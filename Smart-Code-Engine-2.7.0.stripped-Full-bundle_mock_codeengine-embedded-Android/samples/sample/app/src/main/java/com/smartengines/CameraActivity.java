@@ -297,6 +297,7 @@ public class CameraActivity extends AppCompatActivity implements CodeCallback, V
                         getByteArrayFromByteBuffer(planeU.getBuffer(), planeU.getRowStride()),
                         getByteArrayFromByteBuffer(planeV.getBuffer(), planeV.getRowStride()),
                         yuvDimensions);
+                yuvDimensions.delete();
 
                 /** Example for OUTPUT_IMAGE_FORMAT_RGBA_8888
                  *
@@ -319,7 +320,12 @@ public class CameraActivity extends AppCompatActivity implements CodeCallback, V
 
                 frame.Crop(crop_rect);
                 // String base64_test_string3 = frame.GetBase64String().GetCStr();
-                result = CodeSession.session.Process(frame);
+                try {
+                    result = CodeSession.session.Process(frame);
+                } finally {
+                    // Free the native frame right away instead of leaving it to the GC
+                    frame.delete();
+                }
 
 
             } catch (Exception e) {
@@ -0,0 +1,255 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses between internal and outer parallelism for the sessions of a
+ * {@link CodeEngineSessionPool}.
+ *
+ * <p>With global.enableMultiThreading on, a single Process() call uses
+ * several cores, which gives the lowest latency as long as few calls run at
+ * a time. When many sessions process in parallel, their internal threads
+ * compete for the same cores and every call slows down. The controller
+ * watches the demand on the pool, i.e. the number of borrowed sessions
+ * plus the callers waiting for one. It hands out multi-threaded sessions
+ * while the demand stays at or below {@code high_demand}, and
+ * single-threaded ones above that. It switches back once the demand has
+ * stayed at or below {@code low_demand} for the cool-down period, so
+ * short dips do not cause flapping.
+ *
+ * <p>Whether internal threads actually hurt under load depends on the
+ * machine and the images, so the demand thresholds are checked against
+ * the latency of the calls completed while the demand was above
+ * {@code high_demand}. Once enough recent such calls were seen in both
+ * modes, multi-threaded sessions are kept under load as long as their
+ * latency is not above the single-threaded one, and restored before the
+ * cool-down when it is clearly below. Samples older than 30 seconds are
+ * dropped, and under load the controller switches to a mode without
+ * recent samples to measure it again, so an early measurement does not
+ * decide the mode for good.
+ *
+ * <p>The pool keeps sessions of both kinds for each settings fingerprint;
+ * idle sessions of the kind not in use are evicted like any other idle
+ * session. The latency of the calls is tracked per kind; it is the time
+ * spent in Process(), as reported by
+ * {@link CodeEngineSessionPool#Process(CodeEngineSession, com.smartengines.common.Image)}
+ * and the recognizers built on the pool.
+ */
+public final class MultiThreadingController {
+
+  public enum Mode {
+    /** Few sessions, each with internal multi-threading on */
+    MultiThreaded,
+    /** Many sessions, each on a single thread */
+    SingleThreaded
+  }
+
+  // Weight of a new sample in the latency averages
+  private static final double LATENCY_SMOOTHING = 0.1;
+  // Calls under load needed in each mode before latency is trusted
+  private static final long MIN_LOADED_CALLS = 8;
+  // How much faster multi-threaded calls under load must be to switch
+  // back to them before the cool-down
+  private static final double LATENCY_MARGIN = 0.1;
+  // Age after which the latency under load of a mode is measured again
+  private static final long LATENCY_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private final int lowDemand;
+  private final int highDemand;
+  private final long coolDownNanos;
+
+  // Guarded by this
+  private Mode mode = Mode.MultiThreaded;
+  private long modeSince = System.nanoTime();
+  private long lastBusy = System.nanoTime();
+  private long switchCount = 0;
+  private int demand = 0;
+  private int peakDemand = 0;
+  private final long[] callCount = new long[2];
+  private final double[] meanLatency = new double[2];
+  // Calls completed while the demand was above highDemand
+  private final long[] loadedCallCount = new long[2];
+  private final double[] loadedLatency = new double[2];
+  private final long[] loadedSampleTime = new long[2];
+  private final long[] timeInMode = new long[2];
+
+  MultiThreadingController(int low_demand, int high_demand, long cool_down_ms) {
+    if (low_demand < 0 || high_demand < 1 || low_demand > high_demand)
+      throw new IllegalArgumentException("Invalid demand thresholds: low_demand=" + low_demand +
+                                         ", high_demand=" + high_demand);
+    if (cool_down_ms < 0)
+      throw new IllegalArgumentException("cool_down_ms must be non-negative");
+    this.lowDemand = low_demand;
+    this.highDemand = high_demand;
+    this.coolDownNanos = TimeUnit.MILLISECONDS.toNanos(cool_down_ms);
+  }
+
+  public synchronized Mode GetMode() {
+    return mode;
+  }
+
+  /**
+   * Demand seen by the last Borrow().
+   */
+  public synchronized int GetDemand() {
+    return demand;
+  }
+
+  public synchronized int GetPeakDemand() {
+    return peakDemand;
+  }
+
+  public int GetLowDemand() {
+    return lowDemand;
+  }
+
+  public int GetHighDemand() {
+    return highDemand;
+  }
+
+  /**
+   * Number of mode changes so far.
+   */
+  public synchronized long GetSwitchCount() {
+    return switchCount;
+  }
+
+  /**
+   * Number of completed calls on sessions of {@code mode}.
+   */
+  public synchronized long GetCallCount(Mode mode) {
+    return callCount[mode.ordinal()];
+  }
+
+  /**
+   * Exponentially weighted mean latency of the calls on sessions of
+   * {@code mode}, 0 if there were none.
+   */
+  public synchronized long GetMeanLatencyNanos(Mode mode) {
+    return (long) meanLatency[mode.ordinal()];
+  }
+
+  /**
+   * Mean latency, weighted like {@link #GetMeanLatencyNanos(Mode)}, of the
+   * recent calls on sessions of {@code mode} completed while the demand
+   * was above {@code high_demand}, 0 if there were none.
+   */
+  public synchronized long GetLoadedMeanLatencyNanos(Mode mode) {
+    return (long) loadedLatency[mode.ordinal()];
+  }
+
+  /**
+   * Total time spent in {@code mode}, including the current period.
+   */
+  public synchronized long GetTimeInModeNanos(Mode mode) {
+    long time = timeInMode[mode.ordinal()];
+    if (mode == this.mode)
+      time += System.nanoTime() - modeSince;
+    return time;
+  }
+
+  public synchronized String GetReport() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("mode ").append(mode).append(", demand ").append(demand).append(" (peak ")
+      .append(peakDemand).append("), ").append(switchCount).append(" switches");
+    for (Mode m : Mode.values()) {
+      sb.append("\n").append(m).append(": ").append(callCount[m.ordinal()]).append(" calls, ")
+        .append(String.format("%.1f", meanLatency[m.ordinal()] / 1e6)).append(" ms mean, ")
+        .append(String.format("%.1f", loadedLatency[m.ordinal()] / 1e6))
+        .append(" ms mean under load, ")
+        .append(TimeUnit.NANOSECONDS.toMillis(GetTimeInModeNanos(m))).append(" ms in mode");
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return GetReport();
+  }
+
+  // Records the demand of a Borrow() and returns the mode of the session
+  // to hand out
+  synchronized Mode Update(int current_demand) {
+    long now = System.nanoTime();
+    demand = current_demand;
+    peakDemand = Math.max(peakDemand, current_demand);
+    if (current_demand > lowDemand)
+      lastBusy = now;
+    Mode next = mode;
+    if (current_demand > highDemand)
+      next = LoadedMode(now);
+    else if (mode == Mode.SingleThreaded && (now - lastBusy >= coolDownNanos ||
+             (LatencyKnown(now) &&
+              MultiThreadedLatency() < (1 - LATENCY_MARGIN) * SingleThreadedLatency())))
+      next = Mode.MultiThreaded;
+    if (next != mode)
+      Switch(next, now);
+    return mode;
+  }
+
+  synchronized void Completed(Mode session_mode, long latency_nanos) {
+    int i = session_mode.ordinal();
+    meanLatency[i] = Average(meanLatency[i], callCount[i], latency_nanos);
+    callCount[i]++;
+    if (demand > highDemand) {
+      long now = System.nanoTime();
+      // Start over once the samples are stale
+      if (now - loadedSampleTime[i] > LATENCY_MAX_AGE_NANOS)
+        loadedCallCount[i] = 0;
+      loadedLatency[i] = Average(loadedLatency[i], loadedCallCount[i], latency_nanos);
+      loadedCallCount[i]++;
+      loadedSampleTime[i] = now;
+    }
+  }
+
+  // Mode of the sessions handed out while the demand is above highDemand
+  private Mode LoadedMode(long now) {
+    // Single-threaded sessions are the default under load, and are
+    // measured first
+    if (!Known(Mode.SingleThreaded, now))
+      return Mode.SingleThreaded;
+    if (!Known(Mode.MultiThreaded, now))
+      return Mode.MultiThreaded;
+    if (mode == Mode.MultiThreaded)
+      return MultiThreadedLatency() <= SingleThreadedLatency() ? Mode.MultiThreaded
+                                                               : Mode.SingleThreaded;
+    return MultiThreadedLatency() < (1 - LATENCY_MARGIN) * SingleThreadedLatency()
+        ? Mode.MultiThreaded : Mode.SingleThreaded;
+  }
+
+  private static double Average(double mean, long count, long sample) {
+    return count == 0 ? sample : mean + LATENCY_SMOOTHING * (sample - mean);
+  }
+
+  // Whether there are enough recent samples under load of mode
+  private boolean Known(Mode mode, long now) {
+    int i = mode.ordinal();
+    return loadedCallCount[i] >= MIN_LOADED_CALLS &&
+           now - loadedSampleTime[i] <= LATENCY_MAX_AGE_NANOS;
+  }
+
+  private boolean LatencyKnown(long now) {
+    return Known(Mode.MultiThreaded, now) && Known(Mode.SingleThreaded, now);
+  }
+
+  private double MultiThreadedLatency() {
+    return loadedLatency[Mode.MultiThreaded.ordinal()];
+  }
+
+  private double SingleThreadedLatency() {
+    return loadedLatency[Mode.SingleThreaded.ordinal()];
+  }
+
+  private void Switch(Mode new_mode, long now) {
+    timeInMode[mode.ordinal()] += now - modeSince;
+    mode = new_mode;
+    modeSince = now;
+    switchCount++;
+  }
+
+}
@@ -0,0 +1,677 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of a {@link CodeEngineResult} which lives entirely on the
+ * Java heap.
+ *
+ * <p>The result is copied in a single pass: end iterators are acquired once
+ * per collection and every temporary native wrapper is deleted right after
+ * use. Objects, fields, attributes and components are stored column-wise in
+ * primitive arrays with all strings deduplicated in one string table, and
+ * exposed through the lightweight {@link CodeObjectSnapshot} and
+ * {@link CodeFieldSnapshot} views. A snapshot does not reference the
+ * native result, so it stays valid after the result or its session is
+ * deleted or reset, and may be shared between threads.
+ */
+public final class ResultSnapshot {
+
+  private static final int OBJ_ACCEPTED = 1;
+  private static final int OBJ_VALIDATED = 1 << 1;
+  private static final int OBJ_TERMINAL = 1 << 2;
+  private static final int OBJ_HAS_QUAD = 1 << 3;
+  private static final int OBJ_HAS_IMAGE = 1 << 4;
+
+  private static final int FIELD_ACCEPTED = 1;
+  private static final int FIELD_TERMINAL = 1 << 1;
+
+  private static final int NO_STRING = -1;
+
+  private final boolean terminal;
+  private final String[] strings;
+
+  // Objects: one entry per object, ranges are [start[i], start[i + 1])
+  private final int[] objName;
+  private final int[] objType;
+  private final int[] objTypeStr;
+  private final int[] objId;
+  private final int[] objFlags;
+  private final float[] objConfidence;
+  private final int[] objFirstFrame;
+  private final int[] objLastFrame;
+  private final double[] objQuad;
+  private final int[] objFieldStart;
+  private final int[] objAttrStart;
+  private final int[] objCompStart;
+
+  // Fields of all objects
+  private final int[] fieldName;
+  private final int[] fieldFlags;
+  private final double[] fieldConfidence;
+  private final int[] fieldOcr;
+  // Binary representations as returned by the engine, decoded on demand
+  private final String[] fieldBase64;
+
+  // Attributes of all objects
+  private final int[] attrKey;
+  private final int[] attrValue;
+
+  // Components of all objects
+  private final int[] compName;
+  private final double[] compQuad;
+
+  private ResultSnapshot(Builder b) {
+    terminal = b.terminal;
+    strings = b.strings.toArray(new String[b.strings.size()]);
+    objName = b.objName.ToArray();
+    objType = b.objType.ToArray();
+    objTypeStr = b.objTypeStr.ToArray();
+    objId = b.objId.ToArray();
+    objFlags = b.objFlags.ToArray();
+    objConfidence = b.objConfidence.ToArray();
+    objFirstFrame = b.objFirstFrame.ToArray();
+    objLastFrame = b.objLastFrame.ToArray();
+    objQuad = b.objQuad.ToArray();
+    objFieldStart = b.objFieldStart.ToArray();
+    objAttrStart = b.objAttrStart.ToArray();
+    objCompStart = b.objCompStart.ToArray();
+    fieldName = b.fieldName.ToArray();
+    fieldFlags = b.fieldFlags.ToArray();
+    fieldConfidence = b.fieldConfidence.ToArray();
+    fieldOcr = b.fieldOcr.ToArray();
+    fieldBase64 = b.fieldBase64.toArray(new String[b.fieldBase64.size()]);
+    attrKey = b.attrKey.ToArray();
+    attrValue = b.attrValue.ToArray();
+    compName = b.compName.ToArray();
+    compQuad = b.compQuad.ToArray();
+  }
+
+  /**
+   * Copies the contents of {@code result}. The result itself is left intact.
+   */
+  public static ResultSnapshot Create(CodeEngineResult result) {
+    Builder b = new Builder();
+    b.terminal = result.IsTerminal();
+
+    CodeObjectsMapIterator it = result.ObjectsBegin();
+    CodeObjectsMapIterator end = result.ObjectsEnd();
+    try {
+      for (; !it.Equals(end); it.Advance())
+        b.AddObject(it.GetKey(), it.GetValue());
+    } finally {
+      it.delete();
+      end.delete();
+    }
+    b.objFieldStart.Add(b.fieldName.size);
+    b.objAttrStart.Add(b.attrKey.size);
+    b.objCompStart.Add(b.compName.size);
+    return new ResultSnapshot(b);
+  }
+
+  public boolean IsTerminal() {
+    return terminal;
+  }
+
+  public int GetObjectCount() {
+    return objName.length;
+  }
+
+  public CodeObjectSnapshot GetObject(int index) {
+    if (index < 0 || index >= objName.length)
+      throw new IndexOutOfBoundsException("Object index " + index + " is out of range");
+    return new CodeObjectSnapshot(index);
+  }
+
+  public boolean HasObject(String object_name) {
+    return FindObject(object_name) >= 0;
+  }
+
+  public CodeObjectSnapshot GetObject(String object_name) {
+    int index = FindObject(object_name);
+    if (index < 0)
+      throw new IllegalArgumentException("No object named " + object_name);
+    return new CodeObjectSnapshot(index);
+  }
+
+  private int FindObject(String object_name) {
+    for (int i = 0; i < objName.length; ++i)
+      if (strings[objName[i]].equals(object_name))
+        return i;
+    return -1;
+  }
+
+  private String Str(int index) {
+    return index == NO_STRING ? null : strings[index];
+  }
+
+  private static double[] Quad(double[] quads, int index) {
+    return Arrays.copyOfRange(quads, index * 8, index * 8 + 8);
+  }
+
+  private static void AddTranslated(DoubleArray dst, double[] quads, int index,
+                                    double dx, double dy) {
+    for (int i = 0; i < 8; i += 2) {
+      dst.Add(quads[index * 8 + i] + dx);
+      dst.Add(quads[index * 8 + i + 1] + dy);
+    }
+  }
+
+  /**
+   * Assembles a snapshot from objects of other snapshots, e.g. to combine
+   * the results of several parts of an image.
+   */
+  static final class Merger {
+    private final Builder b = new Builder();
+    private final Set<String> names = new HashSet<String>();
+
+    /**
+     * Adds a copy of {@code object}, with its object and component
+     * quadrangles translated by ({@code dx}, {@code dy}). If an object of
+     * the same name has already been added, the name gets a numeric suffix.
+     *
+     * @return index of the added object
+     */
+    int Add(CodeObjectSnapshot object, double dx, double dy) {
+      String name = object.GetName();
+      for (int n = 1; !names.add(name); ++n)
+        name = object.GetName() + "_" + n;
+      object.CopyTo(b, name, dx, dy);
+      return b.objName.size - 1;
+    }
+
+    ResultSnapshot Build(boolean terminal) {
+      b.terminal = terminal;
+      b.objFieldStart.Add(b.fieldName.size);
+      b.objAttrStart.Add(b.attrKey.size);
+      b.objCompStart.Add(b.compName.size);
+      return new ResultSnapshot(b);
+    }
+  }
+
+  /**
+   * Snapshot of a single {@link CodeObject}.
+   */
+  public final class CodeObjectSnapshot {
+    private final int index;
+
+    private CodeObjectSnapshot(int index) {
+      this.index = index;
+    }
+
+    public String GetName() {
+      return strings[objName[index]];
+    }
+
+    public CodeObjectType GetType() {
+      return CodeObjectType.swigToEnum(objType[index]);
+    }
+
+    public String GetTypeStr() {
+      return strings[objTypeStr[index]];
+    }
+
+    public int GetID() {
+      return objId[index];
+    }
+
+    public boolean IsAccepted() {
+      return (objFlags[index] & OBJ_ACCEPTED) != 0;
+    }
+
+    public boolean IsValidated() {
+      return (objFlags[index] & OBJ_VALIDATED) != 0;
+    }
+
+    public float GetConfidence() {
+      return objConfidence[index];
+    }
+
+    public int GetFirstDetectedFrame() {
+      return objFirstFrame[index];
+    }
+
+    public int GetLastUpdatedFrame() {
+      return objLastFrame[index];
+    }
+
+    public boolean GetIsTerminal() {
+      return (objFlags[index] & OBJ_TERMINAL) != 0;
+    }
+
+    public boolean HasQuadrangle() {
+      return (objFlags[index] & OBJ_HAS_QUAD) != 0;
+    }
+
+    /**
+     * Returns the object quadrangle as {x0, y0, x1, y1, x2, y2, x3, y3},
+     * or null if the object has no quadrangle.
+     */
+    public double[] GetQuadrangle() {
+      return HasQuadrangle() ? Quad(objQuad, index) : null;
+    }
+
+    /**
+     * Whether the native object had an image. Images are not copied into
+     * the snapshot.
+     */
+    public boolean HasImage() {
+      return (objFlags[index] & OBJ_HAS_IMAGE) != 0;
+    }
+
+    public int GetFieldsCount() {
+      return objFieldStart[index + 1] - objFieldStart[index];
+    }
+
+    public CodeFieldSnapshot GetField(int field_index) {
+      if (field_index < 0 || field_index >= GetFieldsCount())
+        throw new IndexOutOfBoundsException("Field index " + field_index + " is out of range");
+      return new CodeFieldSnapshot(objFieldStart[index] + field_index);
+    }
+
+    public boolean HasField(String field_name) {
+      return FindField(field_name) >= 0;
+    }
+
+    public CodeFieldSnapshot GetField(String field_name) {
+      int field = FindField(field_name);
+      if (field < 0)
+        throw new IllegalArgumentException("No field named " + field_name);
+      return new CodeFieldSnapshot(field);
+    }
+
+    public int GetAttributesCount() {
+      return objAttrStart[index + 1] - objAttrStart[index];
+    }
+
+    public String GetAttributeKey(int attr_index) {
+      return strings[attrKey[AttrIndex(attr_index)]];
+    }
+
+    public String GetAttributeValue(int attr_index) {
+      return strings[attrValue[AttrIndex(attr_index)]];
+    }
+
+    public boolean HasAttribute(String attr_name) {
+      return FindAttribute(attr_name) >= 0;
+    }
+
+    public String GetAttribute(String attr_name) {
+      int attr = FindAttribute(attr_name);
+      return attr < 0 ? null : strings[attrValue[attr]];
+    }
+
+    public int GetComponentsCount() {
+      return objCompStart[index + 1] - objCompStart[index];
+    }
+
+    public String GetComponentName(int comp_index) {
+      return strings[compName[CompIndex(comp_index)]];
+    }
+
+    /**
+     * Returns the component quadrangle as {x0, y0, x1, y1, x2, y2, x3, y3}.
+     */
+    public double[] GetComponent(int comp_index) {
+      return Quad(compQuad, CompIndex(comp_index));
+    }
+
+    public boolean HasComponent(String comp_name) {
+      return FindComponent(comp_name) >= 0;
+    }
+
+    public double[] GetComponent(String comp_name) {
+      int comp = FindComponent(comp_name);
+      return comp < 0 ? null : Quad(compQuad, comp);
+    }
+
+    // Appends a copy of this object to b, renamed and translated by (dx, dy)
+    void CopyTo(Builder b, String name, double dx, double dy) {
+      b.objName.Add(b.Intern(name));
+      b.objType.Add(objType[index]);
+      b.objTypeStr.Add(b.Intern(strings[objTypeStr[index]]));
+      b.objId.Add(objId[index]);
+      b.objFlags.Add(objFlags[index]);
+      b.objConfidence.Add(objConfidence[index]);
+      b.objFirstFrame.Add(objFirstFrame[index]);
+      b.objLastFrame.Add(objLastFrame[index]);
+      AddTranslated(b.objQuad, objQuad, index, dx, dy);
+
+      b.objFieldStart.Add(b.fieldName.size);
+      for (int i = objFieldStart[index]; i < objFieldStart[index + 1]; ++i) {
+        b.fieldName.Add(b.Intern(strings[fieldName[i]]));
+        b.fieldFlags.Add(fieldFlags[i]);
+        b.fieldConfidence.Add(fieldConfidence[i]);
+        b.fieldOcr.Add(fieldOcr[i] == NO_STRING ? NO_STRING : b.Intern(strings[fieldOcr[i]]));
+        b.fieldBase64.add(fieldBase64[i]);
+      }
+
+      b.objAttrStart.Add(b.attrKey.size);
+      for (int i = objAttrStart[index]; i < objAttrStart[index + 1]; ++i) {
+        b.attrKey.Add(b.Intern(strings[attrKey[i]]));
+        b.attrValue.Add(b.Intern(strings[attrValue[i]]));
+      }
+
+      b.objCompStart.Add(b.compName.size);
+      for (int i = objCompStart[index]; i < objCompStart[index + 1]; ++i) {
+        b.compName.Add(b.Intern(strings[compName[i]]));
+        AddTranslated(b.compQuad, compQuad, i, dx, dy);
+      }
+    }
+
+    private int FindField(String field_name) {
+      for (int i = objFieldStart[index]; i < objFieldStart[index + 1]; ++i)
+        if (strings[fieldName[i]].equals(field_name))
+          return i;
+      return -1;
+    }
+
+    private int FindAttribute(String attr_name) {
+      for (int i = objAttrStart[index]; i < objAttrStart[index + 1]; ++i)
+        if (strings[attrKey[i]].equals(attr_name))
+          return i;
+      return -1;
+    }
+
+    private int FindComponent(String comp_name) {
+      for (int i = objCompStart[index]; i < objCompStart[index + 1]; ++i)
+        if (strings[compName[i]].equals(comp_name))
+          return i;
+      return -1;
+    }
+
+    private int AttrIndex(int attr_index) {
+      if (attr_index < 0 || attr_index >= GetAttributesCount())
+        throw new IndexOutOfBoundsException("Attribute index " + attr_index + " is out of range");
+      return objAttrStart[index] + attr_index;
+    }
+
+    private int CompIndex(int comp_index) {
+      if (comp_index < 0 || comp_index >= GetComponentsCount())
+        throw new IndexOutOfBoundsException("Component index " + comp_index + " is out of range");
+      return objCompStart[index] + comp_index;
+    }
+  }
+
+  /**
+   * Snapshot of a single {@link CodeField}.
+   */
+  public final class CodeFieldSnapshot {
+    private final int index;
+
+    private CodeFieldSnapshot(int index) {
+      this.index = index;
+    }
+
+    public String Name() {
+      return strings[fieldName[index]];
+    }
+
+    public boolean IsAccepted() {
+      return (fieldFlags[index] & FIELD_ACCEPTED) != 0;
+    }
+
+    public double GetConfidence() {
+      return fieldConfidence[index];
+    }
+
+    public boolean IsTerminal() {
+      return (fieldFlags[index] & FIELD_TERMINAL) != 0;
+    }
+
+    public boolean HasBinaryRepresentation() {
+      return fieldBase64[index] != null;
+    }
+
+    /**
+     * Length of the binary representation, or -1 if the field has none.
+     */
+    public int GetBinaryLength() {
+      String base64 = fieldBase64[index];
+      return base64 == null ? -1 : Base64Codec.DecodedLength(base64);
+    }
+
+    /**
+     * Binary representation, decoded on each call, or null if the field
+     * has none.
+     */
+    public byte[] GetBinaryRepresentation() {
+      String base64 = fieldBase64[index];
+      return base64 == null ? null : Base64Codec.Decode(base64);
+    }
+
+    /**
+     * Decodes the binary representation into {@code out_buffer} at
+     * {@code offset} and returns the number of bytes written.
+     */
+    public int CopyBinaryRepresentation(byte[] out_buffer, int offset) {
+      String base64 = fieldBase64[index];
+      if (base64 == null)
+        throw new IllegalStateException("Field " + Name() + " has no binary representation");
+      return Base64Codec.Decode(base64, out_buffer, offset);
+    }
+
+    /**
+     * Binary representation encoded as base64, or null if the field has none.
+     */
+    public String GetBase64String() {
+      return fieldBase64[index];
+    }
+
+    public boolean HasOcrStringRepresentation() {
+      return fieldOcr[index] != NO_STRING;
+    }
+
+    /**
+     * First (best) variant of the OCR string, or null if the field has none.
+     */
+    public String GetOcrString() {
+      return Str(fieldOcr[index]);
+    }
+  }
+
+  private static final class Builder {
+    boolean terminal;
+    final ArrayList<String> strings = new ArrayList<String>();
+    final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+
+    final IntArray objName = new IntArray();
+    final IntArray objType = new IntArray();
+    final IntArray objTypeStr = new IntArray();
+    final IntArray objId = new IntArray();
+    final IntArray objFlags = new IntArray();
+    final FloatArray objConfidence = new FloatArray();
+    final IntArray objFirstFrame = new IntArray();
+    final IntArray objLastFrame = new IntArray();
+    final DoubleArray objQuad = new DoubleArray();
+    final IntArray objFieldStart = new IntArray();
+    final IntArray objAttrStart = new IntArray();
+    final IntArray objCompStart = new IntArray();
+
+    final IntArray fieldName = new IntArray();
+    final IntArray fieldFlags = new IntArray();
+    final DoubleArray fieldConfidence = new DoubleArray();
+    final IntArray fieldOcr = new IntArray();
+    final ArrayList<String> fieldBase64 = new ArrayList<String>();
+
+    final IntArray attrKey = new IntArray();
+    final IntArray attrValue = new IntArray();
+
+    final IntArray compName = new IntArray();
+    final DoubleArray compQuad = new DoubleArray();
+
+    int Intern(String s) {
+      Integer index = stringIndex.get(s);
+      if (index == null) {
+        index = strings.size();
+        strings.add(s);
+        stringIndex.put(s, index);
+      }
+      return index;
+    }
+
+    void AddObject(String name, CodeObject object) {
+      objName.Add(Intern(name));
+      objType.Add(object.GetType().swigValue());
+      objTypeStr.Add(Intern(object.GetTypeStr()));
+      objId.Add(object.GetID());
+      objConfidence.Add(object.GetConfidence());
+      objFirstFrame.Add(object.GetFirstDetectedFrame());
+      objLastFrame.Add(object.GetLastUpdatedFrame());
+
+      int flags = 0;
+      if (object.IsAccepted())
+        flags |= OBJ_ACCEPTED;
+      if (object.IsValidated())
+        flags |= OBJ_VALIDATED;
+      if (object.GetIsTerminal())
+        flags |= OBJ_TERMINAL;
+      if (object.HasImage())
+        flags |= OBJ_HAS_IMAGE;
+      if (object.HasQuadrangle()) {
+        flags |= OBJ_HAS_QUAD;
+        AddQuad(objQuad, object.GetQuadrangle());
+      } else {
+        for (int i = 0; i < 8; ++i)
+          objQuad.Add(Double.NaN);
+      }
+      objFlags.Add(flags);
+
+      objFieldStart.Add(fieldName.size);
+      CodeFieldsMapIterator field_it = object.FieldsBegin();
+      CodeFieldsMapIterator field_end = object.FieldsEnd();
+      try {
+        for (; !field_it.Equals(field_end); field_it.Advance())
+          AddField(field_it.GetValue());
+      } finally {
+        field_it.delete();
+        field_end.delete();
+      }
+
+      objAttrStart.Add(attrKey.size);
+      StringsMapIterator attr_it = object.AttributesBegin();
+      StringsMapIterator attr_end = object.AttributesEnd();
+      try {
+        for (; !attr_it.Equals(attr_end); attr_it.Advance()) {
+          attrKey.Add(Intern(attr_it.GetKey()));
+          attrValue.Add(Intern(attr_it.GetValue()));
+        }
+      } finally {
+        attr_it.delete();
+        attr_end.delete();
+      }
+
+      objCompStart.Add(compName.size);
+      QuadranglesMapIterator comp_it = object.ComponentsBegin();
+      QuadranglesMapIterator comp_end = object.ComponentsEnd();
+      try {
+        for (; !comp_it.Equals(comp_end); comp_it.Advance()) {
+          compName.Add(Intern(comp_it.GetKey()));
+          AddQuad(compQuad, comp_it.GetValue());
+        }
+      } finally {
+        comp_it.delete();
+        comp_end.delete();
+      }
+    }
+
+    void AddField(CodeField field) {
+      fieldName.Add(Intern(field.Name()));
+      fieldConfidence.Add(field.GetConfidence());
+      int flags = 0;
+      if (field.IsAccepted())
+        flags |= FIELD_ACCEPTED;
+      if (field.IsTerminal())
+        flags |= FIELD_TERMINAL;
+      fieldFlags.Add(flags);
+
+      if (field.HasOcrStringRepresentation()) {
+        MutableString str = field.GetOcrString().GetFirstString();
+        try {
+          fieldOcr.Add(Intern(str.GetCStr()));
+        } finally {
+          str.delete();
+        }
+      } else {
+        fieldOcr.Add(NO_STRING);
+      }
+
+      if (field.HasBinaryRepresentation()) {
+        MutableString base64 = field.GetBinaryRepresentation().GetBase64String();
+        try {
+          fieldBase64.add(base64.GetCStr());
+        } finally {
+          base64.delete();
+        }
+      } else {
+        fieldBase64.add(null);
+      }
+    }
+
+    static void AddQuad(DoubleArray quads, Quadrangle quad) {
+      for (int i = 0; i < 4; ++i) {
+        Point p = quad.GetPoint(i);
+        quads.Add(p.getX());
+        quads.Add(p.getY());
+      }
+    }
+  }
+
+  private static final class IntArray {
+    int[] data = new int[8];
+    int size = 0;
+
+    void Add(int value) {
+      if (size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+
+    int[] ToArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  private static final class FloatArray {
+    float[] data = new float[8];
+    int size = 0;
+
+    void Add(float value) {
+      if (size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+
+    float[] ToArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  private static final class DoubleArray {
+    double[] data = new double[16];
+    int size = 0;
+
+    void Add(double value) {
+      if (size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+
+    double[] ToArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+}
@@ -0,0 +1,320 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable set of session options, built once and applied to any number
+ * of sessions.
+ *
+ * <p>A profile is assembled with a typed {@link Builder} and validated by
+ * {@link Builder#Build()}. The first time it is used with an engine, the
+ * options are applied to the default session settings of the engine,
+ * giving a template which is cached by the profile. Later sessions are
+ * spawned from the template with no option parsing and no JNI call per
+ * option:
+ *
+ * <pre>
+ * SettingsProfile profile = new SettingsProfile.Builder()
+ *     .EnableGroup(EngineSettingsGroup.Barcode)
+ *     .EnableSymbologies("COMMON")
+ *     .SetFeedMode(SettingsProfile.FeedMode.Single)
+ *     .SetMaxAllowedCodes(5)
+ *     .Build();
+ *
+ * CodeEngineSession session = profile.SpawnSession(engine, signature);
+ * </pre>
+ *
+ * <p>Profiles may be shared between threads. The templates are shared as
+ * well, so a profile cannot delete them. They are freed by
+ * {@link #ReleaseTemplates(CodeEngine)} when their engine is retired, as
+ * {@link EngineRegistry} does, or else once the engine wrapper is garbage
+ * collected.
+ */
+public final class SettingsProfile {
+
+  /**
+   * Values of the barcode.feedMode option.
+   */
+  public enum FeedMode {
+    Single("single"),
+    Sequence("sequence");
+
+    private final String value;
+
+    FeedMode(String value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Values of the barcode.roiDetectionMode option.
+   */
+  public enum RoiDetectionMode {
+    Focused("focused"),
+    Anywhere("anywhere"),
+    Dummy("dummy");
+
+    private final String value;
+
+    RoiDetectionMode(String value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Values of the barcode.effortLevel option.
+   */
+  public enum EffortLevel {
+    Low("low"),
+    Normal("normal"),
+    High("high");
+
+    private final String value;
+
+    EffortLevel(String value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Collects the options of a profile. Options are applied in the order
+   * they were set; setting an option again replaces its value.
+   */
+  public static final class Builder {
+    private final LinkedHashMap<String, String> options = new LinkedHashMap<String, String>();
+
+    public Builder() {
+    }
+
+    /**
+     * Starts from the options of {@code profile}.
+     */
+    public Builder(SettingsProfile profile) {
+      options.putAll(profile.options);
+    }
+
+    /**
+     * Enables the recognition of {@code group}, e.g. barcode.enabled.
+     */
+    public Builder EnableGroup(EngineSettingsGroup group) {
+      return SetOption(group, "enabled", "true");
+    }
+
+    /**
+     * Enables barcode symbologies, including the COMMON and ALL shorthands.
+     */
+    public Builder EnableSymbologies(String... symbologies) {
+      for (String symbology : symbologies) {
+        if (symbology == null || symbology.isEmpty())
+          throw new IllegalArgumentException("Empty barcode symbology");
+        SetOption(EngineSettingsGroup.Barcode, symbology + ".enabled", "true");
+      }
+      return this;
+    }
+
+    /**
+     * Sets the presets interpreting the decoded barcode content.
+     */
+    public Builder SetPresets(BarcodePreset... presets) {
+      StringBuilder sb = new StringBuilder();
+      for (BarcodePreset preset : presets) {
+        if (sb.length() > 0)
+          sb.append('|');
+        sb.append(jnicodeengine.presetToString(preset));
+      }
+      return SetOption(EngineSettingsGroup.Barcode, "preset", sb.toString());
+    }
+
+    public Builder SetFeedMode(FeedMode mode) {
+      return SetOption(EngineSettingsGroup.Barcode, "feedMode", mode.value);
+    }
+
+    public Builder SetRoiDetectionMode(RoiDetectionMode mode) {
+      return SetOption(EngineSettingsGroup.Barcode, "roiDetectionMode", mode.value);
+    }
+
+    public Builder SetEffortLevel(EffortLevel level) {
+      return SetOption(EngineSettingsGroup.Barcode, "effortLevel", level.value);
+    }
+
+    public Builder SetMaxAllowedCodes(int max_allowed_codes) {
+      if (max_allowed_codes <= 0)
+        throw new IllegalArgumentException("max_allowed_codes must be positive");
+      return SetOption(EngineSettingsGroup.Barcode, "maxAllowedCodes",
+                       Integer.toString(max_allowed_codes));
+    }
+
+    /**
+     * Sets the time after which sessions terminate, 0 for no limit.
+     */
+    public Builder SetSessionTimeout(double seconds) {
+      if (!(seconds >= 0) || Double.isInfinite(seconds))
+        throw new IllegalArgumentException("Session timeout must be a non-negative number");
+      return SetOption(EngineSettingsGroup.Global, "sessionTimeout", Double.toString(seconds));
+    }
+
+    /**
+     * Sets {@code name} within {@code group}, e.g. "embossed.enabled" for
+     * bank_card.embossed.enabled.
+     */
+    public Builder SetOption(EngineSettingsGroup group, String name, String value) {
+      return SetOption(jnicodeengine.toString(group) + "." + name, value);
+    }
+
+    /**
+     * Sets an option by its full name.
+     */
+    public Builder SetOption(String option_name, String option_value) {
+      if (option_name == null || option_name.isEmpty())
+        throw new IllegalArgumentException("Empty option name");
+      if (option_value == null)
+        throw new IllegalArgumentException("Option " + option_name + " has no value");
+      options.put(option_name, option_value);
+      return this;
+    }
+
+    public SettingsProfile Build() {
+      return new SettingsProfile(new LinkedHashMap<String, String>(options));
+    }
+  }
+
+  // Templates of all profiles per engine, for ReleaseTemplates()
+  private static final WeakHashMap<CodeEngine, List<Template>> ENGINE_TEMPLATES =
+      new WeakHashMap<CodeEngine, List<Template>>();
+
+  private final Map<String, String> options;
+  // Templates per engine, dropped together with the engine wrapper and
+  // freed by the native cleaner of the settings unless released before
+  private final WeakHashMap<CodeEngine, Template> templates =
+      new WeakHashMap<CodeEngine, Template>();
+
+  private SettingsProfile(Map<String, String> options) {
+    this.options = Collections.unmodifiableMap(options);
+  }
+
+  /**
+   * Options of the profile, in the order they are applied.
+   */
+  public Map<String, String> GetOptions() {
+    return options;
+  }
+
+  /**
+   * Deletes the templates all profiles hold for {@code engine}. Call it
+   * once the engine is retired and no longer used with any profile;
+   * {@link EngineRegistry} does so before deleting an engine it replaced.
+   */
+  public static void ReleaseTemplates(CodeEngine engine) {
+    List<Template> released;
+    synchronized (ENGINE_TEMPLATES) {
+      released = ENGINE_TEMPLATES.remove(engine);
+    }
+    if (released == null)
+      return;
+    for (Template template : released) {
+      template.profile.Forget(engine, template);
+      template.settings.delete();
+    }
+  }
+
+  /**
+   * Returns the settings of {@code engine} with the options of the profile
+   * applied. The template is shared and must not be modified or deleted;
+   * use {@link #NewSettings(CodeEngine)} outside of this package.
+   *
+   * @throws IllegalArgumentException if the engine rejects an option
+   */
+  CodeEngineSessionSettings GetTemplate(CodeEngine engine) {
+    return Compiled(engine).settings;
+  }
+
+  /**
+   * Returns a copy of the template for {@code engine}, owned by the caller,
+   * e.g. to add options which change from session to session.
+   */
+  public CodeEngineSessionSettings NewSettings(CodeEngine engine) {
+    return GetTemplate(engine).Clone();
+  }
+
+  public CodeEngineSession SpawnSession(CodeEngine engine, String signature) {
+    return engine.SpawnSession(GetTemplate(engine), signature);
+  }
+
+  public CodeEngineSession SpawnSession(CodeEngine engine, String signature,
+                                        CodeEngineWorkflowFeedback workflow_reporter,
+                                        CodeEngineVisualizationFeedback visualization_reporter) {
+    return engine.SpawnSession(GetTemplate(engine), signature, workflow_reporter,
+                               visualization_reporter);
+  }
+
+  /**
+   * Fingerprint of the template for {@code engine}, computed once.
+   */
+  public SettingsFingerprint GetFingerprint(CodeEngine engine) {
+    return Compiled(engine).fingerprint;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof SettingsProfile && options.equals(((SettingsProfile) other).options);
+  }
+
+  @Override
+  public int hashCode() {
+    return options.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return options.toString();
+  }
+
+  private synchronized Template Compiled(CodeEngine engine) {
+    if (engine == null)
+      throw new IllegalArgumentException("engine is null");
+    Template template = templates.get(engine);
+    if (template == null) {
+      CodeEngineSessionSettings settings = SettingsTemplateCache.Apply(engine, options);
+      template = new Template(this, settings, SettingsFingerprint.Of(settings));
+      templates.put(engine, template);
+      synchronized (ENGINE_TEMPLATES) {
+        List<Template> engine_templates = ENGINE_TEMPLATES.get(engine);
+        if (engine_templates == null) {
+          engine_templates = new ArrayList<Template>();
+          ENGINE_TEMPLATES.put(engine, engine_templates);
+        }
+        engine_templates.add(template);
+      }
+    }
+    return template;
+  }
+
+  private synchronized void Forget(CodeEngine engine, Template template) {
+    if (templates.get(engine) == template)
+      templates.remove(engine);
+  }
+
+  private static final class Template {
+    final SettingsProfile profile;
+    final CodeEngineSessionSettings settings;
+    final SettingsFingerprint fingerprint;
+
+    Template(SettingsProfile profile, CodeEngineSessionSettings settings,
+             SettingsFingerprint fingerprint) {
+      this.profile = profile;
+      this.settings = settings;
+      this.fingerprint = fingerprint;
+    }
+  }
+
+}
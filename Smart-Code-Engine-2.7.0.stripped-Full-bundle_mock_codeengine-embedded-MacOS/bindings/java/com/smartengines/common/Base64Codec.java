@@ -0,0 +1,110 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+/**
+ * Standard base64 (RFC 4648) encoding and decoding of byte arrays, for
+ * platforms where neither java.util.Base64 nor android.util.Base64 can be
+ * relied on.
+ *
+ * <p>Internal: public only for the use of the engine packages, such as
+ * {@code com.smartengines.code}. It is not part of the API and may change
+ * without notice.
+ */
+public final class Base64Codec {
+
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private static final int[] VALUES = new int[128];
+
+  static {
+    java.util.Arrays.fill(VALUES, -1);
+    for (int i = 0; i < ALPHABET.length; ++i)
+      VALUES[ALPHABET[i]] = i;
+  }
+
+  private Base64Codec() {
+  }
+
+  /**
+   * Returns the number of bytes encoded by {@code base64}, ignoring padding.
+   */
+  public static int DecodedLength(CharSequence base64) {
+    int length = base64.length();
+    while (length > 0 && base64.charAt(length - 1) == '=')
+      --length;
+    return (int) ((long) length * 6 / 8);
+  }
+
+  /**
+   * Decodes {@code base64} into {@code out} starting at {@code offset}.
+   *
+   * @return the number of bytes written
+   */
+  public static int Decode(CharSequence base64, byte[] out, int offset) {
+    int length = DecodedLength(base64);
+    if (offset < 0 || offset > out.length || out.length - offset < length)
+      throw new IndexOutOfBoundsException("Buffer of " + out.length + " bytes cannot hold " +
+                                          length + " bytes at offset " + offset);
+    int pos = offset;
+    int end = offset + length;
+    int bits = 0;
+    int nbits = 0;
+    for (int i = 0; pos < end; ++i) {
+      char c = base64.charAt(i);
+      int value = c < 128 ? VALUES[c] : -1;
+      if (value < 0)
+        throw new IllegalArgumentException("Invalid base64 character at position " + i);
+      bits = (bits << 6) | value;
+      nbits += 6;
+      if (nbits >= 8) {
+        nbits -= 8;
+        out[pos++] = (byte) (bits >> nbits);
+      }
+    }
+    return length;
+  }
+
+  public static byte[] Decode(CharSequence base64) {
+    byte[] out = new byte[DecodedLength(base64)];
+    Decode(base64, out, 0);
+    return out;
+  }
+
+  public static String Encode(byte[] data, int offset, int length) {
+    char[] out = new char[(length + 2) / 3 * 4];
+    int pos = 0;
+    int end = offset + length;
+    int i = offset;
+    for (; end - i >= 3; i += 3) {
+      int v = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+      out[pos++] = ALPHABET[v >>> 18];
+      out[pos++] = ALPHABET[(v >>> 12) & 0x3f];
+      out[pos++] = ALPHABET[(v >>> 6) & 0x3f];
+      out[pos++] = ALPHABET[v & 0x3f];
+    }
+    if (end - i == 1) {
+      int v = (data[i] & 0xff) << 16;
+      out[pos++] = ALPHABET[v >>> 18];
+      out[pos++] = ALPHABET[(v >>> 12) & 0x3f];
+      out[pos++] = '=';
+      out[pos++] = '=';
+    } else if (end - i == 2) {
+      int v = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8);
+      out[pos++] = ALPHABET[v >>> 18];
+      out[pos++] = ALPHABET[(v >>> 12) & 0x3f];
+      out[pos++] = ALPHABET[(v >>> 6) & 0x3f];
+      out[pos++] = '=';
+    }
+    return new String(out);
+  }
+
+  public static String Encode(byte[] data) {
+    return Encode(data, 0, data.length);
+  }
+
+}
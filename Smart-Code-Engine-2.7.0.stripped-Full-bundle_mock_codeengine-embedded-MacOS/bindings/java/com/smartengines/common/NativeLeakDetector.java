@@ -0,0 +1,218 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debug mode reporting API objects which were never deleted or closed.
+ *
+ * <p>When enabled, a sample of the owning wrappers record the stack trace
+ * of their allocation. A sampled wrapper reclaimed by the
+ * {@link NativeCleaner} instead of an explicit delete() or close() is
+ * reported together with its allocation site and its native footprint, and
+ * so are the sampled wrappers still alive when the JVM shuts down.
+ *
+ * <p>The mode is enabled with the system property
+ * {@code com.smartengines.leakDetection} set to the fraction of allocations
+ * to sample, for example {@code -Dcom.smartengines.leakDetection=0.01} for
+ * one allocation in a hundred, or {@code true} for all of them. Capturing
+ * a stack trace costs a few microseconds, so a low rate keeps the overhead
+ * negligible even in production.
+ */
+public final class NativeLeakDetector {
+
+  public static final String PROPERTY = "com.smartengines.leakDetection";
+
+  /**
+   * An object which was not deleted.
+   */
+  public static final class Leak {
+    private final String typeName;
+    private final long footprint;
+    private final Throwable site;
+
+    Leak(Class<?> type, long footprint, Throwable site) {
+      this.typeName = type.getName();
+      this.footprint = footprint;
+      this.site = site;
+    }
+
+    public String GetTypeName() {
+      return typeName;
+    }
+
+    /**
+     * Approximate native footprint in bytes, as reported to the
+     * {@link NativeMemoryTracker}.
+     */
+    public long GetFootprint() {
+      return footprint;
+    }
+
+    public StackTraceElement[] GetAllocationSite() {
+      // Skip the frames of the detector itself
+      StackTraceElement[] trace = site.getStackTrace();
+      int start = 0;
+      while (start < trace.length &&
+             (trace[start].getClassName().equals(NativeLeakDetector.class.getName()) ||
+              trace[start].getClassName().startsWith(NativeCleaner.class.getName())))
+        start++;
+      return Arrays.copyOfRange(trace, start, trace.length);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(typeName).append(" (").append(footprint).append(" bytes) allocated at");
+      for (StackTraceElement element : GetAllocationSite())
+        sb.append("\n\tat ").append(element);
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Receives the detected leaks. The default implementation prints them to
+   * the standard error stream.
+   */
+  public static class Reporter {
+    /**
+     * Called on the cleaner thread for a sampled object which became
+     * unreachable without being deleted.
+     */
+    public void LeakReclaimed(Leak leak) {
+      Print("Native object was not deleted before it became unreachable: ", leak);
+    }
+
+    /**
+     * Called on shutdown for every sampled object still alive.
+     */
+    public void LeakAtShutdown(Leak leak) {
+      Print("Native object was not deleted before shutdown: ", leak);
+    }
+
+    /**
+     * Called on shutdown with the number of objects still alive,
+     * including the ones which were not sampled.
+     */
+    public void ShutdownSummary(int live_count, long live_bytes) {
+      if (live_count > 0)
+        System.err.println("SmartEngines: " + live_count + " native objects (" + live_bytes +
+                           " bytes) were not deleted before shutdown");
+    }
+
+    private static void Print(String message, Leak leak) {
+      PrintStream err = System.err;
+      synchronized (err) {
+        err.println("SmartEngines: " + message + leak);
+      }
+    }
+  }
+
+  private static volatile double samplingRate = ParseRate(System.getProperty(PROPERTY));
+  private static volatile Reporter reporter = new Reporter();
+  private static final AtomicLong reclaimedCount = new AtomicLong();
+  private static boolean hookInstalled = false;
+
+  static {
+    if (samplingRate > 0)
+      InstallShutdownHook();
+  }
+
+  private NativeLeakDetector() {
+  }
+
+  /**
+   * Sets the fraction of allocations whose site is recorded, 0 to disable
+   * the detector. Applies to objects created afterwards.
+   */
+  public static void SetSamplingRate(double rate) {
+    if (rate < 0 || rate > 1)
+      throw new IllegalArgumentException("Sampling rate must be in [0, 1]");
+    samplingRate = rate;
+    if (rate > 0)
+      InstallShutdownHook();
+  }
+
+  public static double GetSamplingRate() {
+    return samplingRate;
+  }
+
+  public static boolean IsEnabled() {
+    return samplingRate > 0;
+  }
+
+  public static void SetReporter(Reporter new_reporter) {
+    if (new_reporter == null)
+      throw new IllegalArgumentException("reporter is null");
+    reporter = new_reporter;
+  }
+
+  /**
+   * Number of sampled objects reclaimed without being deleted so far.
+   */
+  public static long GetReclaimedLeakCount() {
+    return reclaimedCount.get();
+  }
+
+  /**
+   * Sampled objects currently alive, e.g. to be checked at the end of a
+   * test or of a unit of work.
+   */
+  public static List<Leak> GetLiveSampled() {
+    return NativeCleaner.GetLiveSampled();
+  }
+
+  // Returns the allocation site to be recorded, or null if not sampled
+  static Throwable Sample() {
+    double rate = samplingRate;
+    if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate))
+      return null;
+    return new Throwable("Allocation site");
+  }
+
+  static void Reclaimed(Leak leak) {
+    reclaimedCount.incrementAndGet();
+    try {
+      reporter.LeakReclaimed(leak);
+    } catch (RuntimeException e) {
+      // A failing reporter must not stop the cleaner thread
+    }
+  }
+
+  private static synchronized void InstallShutdownHook() {
+    if (hookInstalled)
+      return;
+    hookInstalled = true;
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      public void run() {
+        Reporter current = reporter;
+        for (Leak leak : NativeCleaner.GetLiveSampled())
+          current.LeakAtShutdown(leak);
+        current.ShutdownSummary(NativeCleaner.GetRegisteredCount(),
+                                NativeMemoryTracker.GetLiveBytes());
+      }
+    }, "SmartEngines-NativeLeakDetector"));
+  }
+
+  private static double ParseRate(String value) {
+    if (value == null || value.isEmpty() || value.equalsIgnoreCase("false"))
+      return 0;
+    if (value.equalsIgnoreCase("true"))
+      return 1;
+    try {
+      double rate = Double.parseDouble(value);
+      return Math.max(0, Math.min(rate, 1));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+}
@@ -0,0 +1,259 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accounts the native memory held by API objects, which the garbage
+ * collector does not see.
+ *
+ * <p>Every wrapper owning a native object is counted per class from its
+ * creation until it is deleted, closed or reclaimed by the
+ * {@link NativeCleaner}. While a budget is set or footprint tracking is
+ * enabled, images additionally report their approximate native footprint:
+ * the pixel buffer size of the image and its layers. Measuring it takes
+ * several JNI calls per image, so it is off otherwise.
+ *
+ * <p>An optional budget on the footprint makes the allocating paths
+ * ({@link Image} factories and deep clones) either wait until enough
+ * memory has been released or fail with a
+ * {@link BudgetExceededException}, so that the process degrades gracefully
+ * instead of running out of native memory.
+ */
+public final class NativeMemoryTracker {
+
+  /**
+   * Behavior of allocating paths while the budget is exceeded.
+   */
+  public enum BudgetPolicy {
+    /** Wait up to the configured time for memory to be released */
+    Block,
+    /** Throw right away */
+    FailFast
+  }
+
+  /**
+   * Thrown by allocating paths when the native memory budget is exceeded.
+   */
+  public static class BudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public BudgetExceededException(String message) {
+      super(message);
+    }
+  }
+
+  private static final class Counter {
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+  }
+
+  private static final ConcurrentHashMap<Class<?>, Counter> counters =
+      new ConcurrentHashMap<Class<?>, Counter>();
+  private static final AtomicLong liveBytes = new AtomicLong();
+  private static final AtomicLong peakBytes = new AtomicLong();
+
+  private static final ReentrantLock lock = new ReentrantLock();
+  private static final Condition released = lock.newCondition();
+  private static volatile long budgetBytes = 0;
+  private static volatile BudgetPolicy budgetPolicy = BudgetPolicy.FailFast;
+  private static volatile long budgetWaitNanos = 0;
+  private static volatile boolean footprintTracking = false;
+  // Minimal time between two garbage collections requested by blocked
+  // allocations
+  private static final long GC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final AtomicLong lastGcNanos = new AtomicLong(System.nanoTime() - GC_INTERVAL_NANOS);
+
+  private NativeMemoryTracker() {
+  }
+
+  /**
+   * Limits the native footprint to {@code max_bytes}; 0 removes the limit.
+   *
+   * @param max_wait_ms time allocating paths wait for memory to be
+   *                    released under {@link BudgetPolicy#Block}
+   */
+  public static void SetBudget(long max_bytes, BudgetPolicy policy, long max_wait_ms) {
+    if (max_bytes < 0 || max_wait_ms < 0)
+      throw new IllegalArgumentException("Budget and wait time must be non-negative");
+    if (policy == null)
+      throw new IllegalArgumentException("policy is null");
+    budgetPolicy = policy;
+    budgetWaitNanos = TimeUnit.MILLISECONDS.toNanos(max_wait_ms);
+    budgetBytes = max_bytes;
+    SignalReleased();
+  }
+
+  public static long GetBudget() {
+    return budgetBytes;
+  }
+
+  /**
+   * Measures the footprint of images created from now on even without a
+   * budget, for {@link #GetLiveBytes()} and {@link #GetReport()}.
+   */
+  public static void SetFootprintTracking(boolean enabled) {
+    footprintTracking = enabled;
+  }
+
+  /**
+   * Returns true if images measure their footprint, i.e. a budget is set
+   * or footprint tracking is enabled.
+   */
+  public static boolean IsTrackingFootprint() {
+    return budgetBytes != 0 || footprintTracking;
+  }
+
+  /**
+   * Returns once the footprint is within the budget. Called by allocating
+   * paths before they allocate native memory.
+   *
+   * @throws BudgetExceededException if the budget is still exceeded after
+   *                                 the configured wait, or right away
+   *                                 under {@link BudgetPolicy#FailFast}
+   */
+  public static void AwaitCapacity() {
+    long budget = budgetBytes;
+    if (budget == 0 || liveBytes.get() < budget)
+      return;
+    if (budgetPolicy == BudgetPolicy.FailFast)
+      throw Exceeded(budget);
+
+    // Unreachable wrappers may still hold native memory until they are
+    // discovered by the garbage collector. Collections are requested at
+    // most once per GC_INTERVAL_NANOS, however many allocations block.
+    long now = System.nanoTime();
+    long last = lastGcNanos.get();
+    if (now - last >= GC_INTERVAL_NANOS && lastGcNanos.compareAndSet(last, now))
+      System.gc();
+    long remaining = budgetWaitNanos;
+    lock.lock();
+    try {
+      while (true) {
+        budget = budgetBytes;
+        if (budget == 0 || liveBytes.get() < budget)
+          return;
+        if (remaining <= 0)
+          throw Exceeded(budget);
+        remaining = released.awaitNanos(remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Exceeded(budget);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Approximate native footprint of all live objects, in bytes.
+   */
+  public static long GetLiveBytes() {
+    return liveBytes.get();
+  }
+
+  /**
+   * Highest footprint observed, in bytes.
+   */
+  public static long GetPeakBytes() {
+    return peakBytes.get();
+  }
+
+  public static long GetLiveBytes(Class<?> type) {
+    Counter counter = counters.get(type);
+    return counter == null ? 0 : counter.bytes.get();
+  }
+
+  /**
+   * Number of live objects of {@code type} owning native memory.
+   */
+  public static long GetLiveCount(Class<?> type) {
+    Counter counter = counters.get(type);
+    return counter == null ? 0 : counter.count.get();
+  }
+
+  /**
+   * Live objects per class, one line per class with live objects, sorted
+   * by class name.
+   */
+  public static String GetReport() {
+    TreeMap<String, Counter> sorted = new TreeMap<String, Counter>();
+    for (Map.Entry<Class<?>, Counter> entry : counters.entrySet())
+      sorted.put(entry.getKey().getName(), entry.getValue());
+    StringBuilder sb = new StringBuilder();
+    sb.append("Native memory: ").append(liveBytes.get()).append(" bytes live, ")
+      .append(peakBytes.get()).append(" bytes peak\n");
+    for (Map.Entry<String, Counter> entry : sorted.entrySet()) {
+      long count = entry.getValue().count.get();
+      if (count == 0)
+        continue;
+      sb.append("  ").append(entry.getKey()).append(": ").append(count).append(" objects, ")
+        .append(entry.getValue().bytes.get()).append(" bytes\n");
+    }
+    return sb.toString();
+  }
+
+  static void Registered(Class<?> type) {
+    GetCounter(type).count.incrementAndGet();
+  }
+
+  static void Unregistered(Class<?> type, long bytes) {
+    Counter counter = GetCounter(type);
+    counter.count.decrementAndGet();
+    if (bytes != 0)
+      Resized(counter, -bytes);
+  }
+
+  static void Resized(Class<?> type, long delta) {
+    if (delta != 0)
+      Resized(GetCounter(type), delta);
+  }
+
+  private static void Resized(Counter counter, long delta) {
+    counter.bytes.addAndGet(delta);
+    long live = liveBytes.addAndGet(delta);
+    if (delta > 0) {
+      long peak;
+      while ((peak = peakBytes.get()) < live && !peakBytes.compareAndSet(peak, live)) {
+      }
+    } else if (budgetBytes != 0 && budgetPolicy == BudgetPolicy.Block) {
+      SignalReleased();
+    }
+  }
+
+  private static Counter GetCounter(Class<?> type) {
+    Counter counter = counters.get(type);
+    if (counter == null) {
+      Counter created = new Counter();
+      counter = counters.putIfAbsent(type, created);
+      if (counter == null)
+        counter = created;
+    }
+    return counter;
+  }
+
+  private static void SignalReleased() {
+    lock.lock();
+    try {
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static BudgetExceededException Exceeded(long budget) {
+    return new BudgetExceededException("Native memory budget of " + budget +
+                                       " bytes exceeded: " + liveBytes.get() + " bytes live");
+  }
+
+}
@@ -10,12 +10,26 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeEngineFeedbackContainer {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeEngineFeedbackContainer implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeEngineFeedbackContainer> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeEngineFeedbackContainer.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeEngineFeedbackContainer(cPtr);
+    }
+  };
 
   public CodeEngineFeedbackContainer(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +49,25 @@ public class CodeEngineFeedbackContainer {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeEngineFeedbackContainer(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public CodeEngineFeedbackContainer() {
     this(jnicodeengineJNI.new_CodeEngineFeedbackContainer__SWIG_0(), true);
   }
@@ -86,4 +104,16 @@ public class CodeEngineFeedbackContainer {
     return new QuadranglesMapIterator(jnicodeengineJNI.CodeEngineFeedbackContainer_QuadranglesEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<QuadranglesMapIterator> Quadrangles() {
+    return new NativeRange<QuadranglesMapIterator>() {
+      protected QuadranglesMapIterator Begin() {
+        return QuadranglesBegin();
+      }
+
+      protected QuadranglesMapIterator End() {
+        return QuadranglesEnd();
+      }
+    };
+  }
+
 }
@@ -10,12 +10,26 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeEngineResult {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeEngineResult implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeEngineResult> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeEngineResult.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeEngineResult(cPtr);
+    }
+  };
 
   public CodeEngineResult(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +49,25 @@ public class CodeEngineResult {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeEngineResult(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public CodeEngineResult(boolean is_terminal) {
     this(jnicodeengineJNI.new_CodeEngineResult__SWIG_0(is_terminal), true);
   }
@@ -86,6 +104,18 @@ public class CodeEngineResult {
     return new CodeObjectsMapIterator(jnicodeengineJNI.CodeEngineResult_ObjectsEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<CodeObjectsMapIterator> Objects() {
+    return new NativeRange<CodeObjectsMapIterator>() {
+      protected CodeObjectsMapIterator Begin() {
+        return ObjectsBegin();
+      }
+
+      protected CodeObjectsMapIterator End() {
+        return ObjectsEnd();
+      }
+    };
+  }
+
   public boolean IsTerminal() {
     return jnicodeengineJNI.CodeEngineResult_IsTerminal(swigCPtr, this);
   }
@@ -102,4 +132,8 @@ public class CodeEngineResult {
     jnicodeengineJNI.CodeEngineResult_Reset(swigCPtr, this);
   }
 
+  public ResultSnapshot Snapshot() {
+    return ResultSnapshot.Create(this);
+  }
+
 }
@@ -10,12 +10,26 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeEngineWorkflowFeedback {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeEngineWorkflowFeedback implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeEngineWorkflowFeedback> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeEngineWorkflowFeedback.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeEngineWorkflowFeedback(cPtr);
+    }
+  };
 
   public CodeEngineWorkflowFeedback(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +49,25 @@ public class CodeEngineWorkflowFeedback {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeEngineWorkflowFeedback(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   protected void swigDirectorDisconnect() {
     swigCMemOwn = false;
     delete();
@@ -58,11 +76,17 @@ public class CodeEngineWorkflowFeedback {
   public void swigReleaseOwnership() {
     swigCMemOwn = false;
     jnicodeengineJNI.CodeEngineWorkflowFeedback_change_ownership(this, swigCPtr, false);
+    if (swigCleanable != null) {
+      swigCleanable.Cancel();
+      swigCleanable = null;
+    }
   }
 
   public void swigTakeOwnership() {
     swigCMemOwn = true;
     jnicodeengineJNI.CodeEngineWorkflowFeedback_change_ownership(this, swigCPtr, true);
+    if (swigCleanable == null && swigCPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, swigCPtr, swigDeallocator);
   }
 
   public void ResultReceived(CodeEngineResult result_received) {
@@ -0,0 +1,480 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.code.BatchRecognizer.Batch;
+import com.smartengines.code.BatchRecognizer.BatchResult;
+import com.smartengines.code.BatchRecognizer.Item;
+import com.smartengines.code.BatchRecognizer.Order;
+import com.smartengines.code.BatchRecognizer.ResultListener;
+import com.smartengines.common.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recognizes batches of image files in three overlapping stages, so that
+ * reading and decoding files does not hold up recognition.
+ *
+ * <p>Files are read into the Java heap on I/O threads, decoded with
+ * {@link Image#FromFileBuffer(ByteBuffer)} on decoder threads and
+ * recognized on worker threads with pooled sessions, each worker keeping
+ * one session for the whole batch and resetting it between images. The
+ * stages are connected by bounded queues, so a slow stage holds the
+ * previous ones back instead of letting read files or decoded images pile
+ * up in memory.
+ *
+ * <p>Each stage reports its utilization: the fraction of the thread time
+ * spent working, as opposed to waiting for input or for room in the next
+ * queue. The stage with the highest utilization is the bottleneck; for
+ * instance a fully utilized read stage means the batch is I/O bound and
+ * more I/O threads may help.
+ *
+ * <p>The stage threads are shared by all batches, so batches are
+ * processed one at a time: concurrent {@link #Process} calls wait for the
+ * running one to finish. Use one pipeline per caller to process batches
+ * in parallel.
+ */
+public class FileRecognitionPipeline implements AutoCloseable {
+
+  /**
+   * Counters of one stage, accumulated over all batches.
+   */
+  public static final class StageMetrics {
+    private final String name;
+    private final int threadCount;
+    private final AtomicLong itemCount = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong activeNanos;
+
+    private StageMetrics(String name, int thread_count, AtomicLong active_nanos) {
+      this.name = name;
+      this.threadCount = thread_count;
+      this.activeNanos = active_nanos;
+    }
+
+    public String GetName() {
+      return name;
+    }
+
+    public int GetThreadCount() {
+      return threadCount;
+    }
+
+    /**
+     * Number of items which went through the stage, including failed ones.
+     */
+    public long GetItemCount() {
+      return itemCount.get();
+    }
+
+    /**
+     * Thread time spent working, summed over the threads of the stage.
+     */
+    public long GetBusyNanos() {
+      return busyNanos.get();
+    }
+
+    /**
+     * Thread time spent waiting for room in the queue to the next stage.
+     */
+    public long GetBlockedNanos() {
+      return blockedNanos.get();
+    }
+
+    /**
+     * Fraction of the available thread time spent working, in [0, 1].
+     */
+    public double GetUtilization() {
+      long available = activeNanos.get() * threadCount;
+      return available == 0 ? 0 : Math.min(1.0, (double) busyNanos.get() / available);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d items, %d threads, %.0f%% busy, %.1f ms blocked", name,
+                           GetItemCount(), threadCount, GetUtilization() * 100,
+                           GetBlockedNanos() / 1e6);
+    }
+  }
+
+  // Marks the end of the input of a stage
+  private static final Object END = new Object();
+
+  private final CodeEngineSessionPool pool;
+  private final int readThreads;
+  private final int decodeThreads;
+  private final int numThreads;
+  private final int queueCapacity;
+  // Held by the running Process() call
+  private final ReentrantLock running = new ReentrantLock();
+  private final ExecutorService readers;
+  private final ExecutorService decoders;
+  private final ExecutorService workers;
+
+  // Wall-clock time of all batches, the base of the stage utilization
+  private final AtomicLong activeNanos = new AtomicLong();
+  private final StageMetrics readMetrics;
+  private final StageMetrics decodeMetrics;
+  private final StageMetrics recognizeMetrics;
+
+  /**
+   * @param pool           pool to borrow sessions from, not owned; should
+   *                       allow at least {@code num_threads} sessions
+   * @param read_threads   number of files read at a time
+   * @param decode_threads number of files decoded at a time
+   * @param num_threads    number of images recognized at a time
+   * @param queue_capacity number of items waiting between two stages
+   */
+  public FileRecognitionPipeline(CodeEngineSessionPool pool, int read_threads,
+                                 int decode_threads, int num_threads, int queue_capacity) {
+    if (pool == null)
+      throw new IllegalArgumentException("pool is null");
+    if (read_threads <= 0 || decode_threads <= 0 || num_threads <= 0 || queue_capacity <= 0)
+      throw new IllegalArgumentException("Invalid bounds: read_threads=" + read_threads +
+                                         ", decode_threads=" + decode_threads +
+                                         ", num_threads=" + num_threads +
+                                         ", queue_capacity=" + queue_capacity);
+    this.pool = pool;
+    this.readThreads = read_threads;
+    this.decodeThreads = decode_threads;
+    this.numThreads = num_threads;
+    this.queueCapacity = queue_capacity;
+    this.readers = Executors.newFixedThreadPool(read_threads,
+                                                DaemonThreads("FileRecognitionPipeline-reader"));
+    this.decoders = Executors.newFixedThreadPool(decode_threads,
+                                                 DaemonThreads("FileRecognitionPipeline-decoder"));
+    this.workers = Executors.newFixedThreadPool(num_threads,
+                                                DaemonThreads("FileRecognitionPipeline-worker"));
+    this.readMetrics = new StageMetrics("read", read_threads, activeNanos);
+    this.decodeMetrics = new StageMetrics("decode", decode_threads, activeNanos);
+    this.recognizeMetrics = new StageMetrics("recognize", num_threads, activeNanos);
+  }
+
+  /**
+   * Creates a pipeline with one worker per available processor, two I/O
+   * threads and as many decoder threads as workers.
+   */
+  public FileRecognitionPipeline(CodeEngineSessionPool pool) {
+    this(pool, 2, Runtime.getRuntime().availableProcessors(),
+         Runtime.getRuntime().availableProcessors(),
+         2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Reads, decodes and recognizes the files listed by {@code filenames}
+   * with sessions spawned with {@code profile}, and blocks until every
+   * file has been processed or has failed. {@code filenames} is iterated
+   * lazily. Only the first page of each file is processed. Waits for the
+   * batch of another caller to finish first.
+   *
+   * @param listener receives the results in {@code order}, may be null
+   */
+  public BatchResult Process(Iterable<String> filenames, SettingsProfile profile, Order order,
+                             ResultListener listener) throws InterruptedException {
+    if (profile == null || order == null)
+      throw new IllegalArgumentException("profile and order must not be null");
+    running.lockInterruptibly();
+    try {
+      Run run = new Run(new Batch(filenames.iterator(), true, profile, order, listener));
+      long start = System.nanoTime();
+      for (int i = 0; i < readThreads; ++i)
+        readers.execute(new ReadTask(run));
+      for (int i = 0; i < decodeThreads; ++i)
+        decoders.execute(new DecodeTask(run));
+      for (int i = 0; i < numThreads; ++i)
+        workers.execute(new RecognizeTask(run));
+      try {
+        run.done.await();
+      } catch (InterruptedException e) {
+        run.batch.cancelled = true;
+        throw e;
+      } finally {
+        activeNanos.addAndGet(System.nanoTime() - start);
+      }
+      return run.batch.Result(System.nanoTime() - start);
+    } finally {
+      running.unlock();
+    }
+  }
+
+  public BatchResult Process(Iterable<String> filenames, SettingsProfile profile)
+      throws InterruptedException {
+    return Process(filenames, profile, Order.Input, null);
+  }
+
+  public StageMetrics GetReadMetrics() {
+    return readMetrics;
+  }
+
+  public StageMetrics GetDecodeMetrics() {
+    return decodeMetrics;
+  }
+
+  public StageMetrics GetRecognizeMetrics() {
+    return recognizeMetrics;
+  }
+
+  /**
+   * Shuts the stage threads down. The pool is not closed.
+   */
+  public void close() {
+    readers.shutdown();
+    decoders.shutdown();
+    workers.shutdown();
+  }
+
+  private static ThreadFactory DaemonThreads(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  // Reads a whole file into a heap buffer, which FromFileBuffer() passes on
+  // without a copy; a mapping would be copied into the heap there anyway
+  private static ByteBuffer ReadFile(String filename) throws IOException {
+    FileInputStream stream = new FileInputStream(filename);
+    try {
+      FileChannel channel = stream.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IOException("File is too large: " + filename);
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0)
+          throw new IOException("File was truncated while reading: " + filename);
+      }
+      buffer.flip();
+      return buffer;
+    } finally {
+      stream.close();
+    }
+  }
+
+  // Hands an item to the next stage, accounting the time spent waiting
+  private static void Put(BlockingQueue<Object> queue, Object item, StageMetrics metrics)
+      throws InterruptedException {
+    if (queue.offer(item))
+      return;
+    long start = System.nanoTime();
+    queue.put(item);
+    metrics.blockedNanos.addAndGet(System.nanoTime() - start);
+  }
+
+  // Items of one Process() call flowing through the stages
+  private final class Run {
+    final Batch batch;
+    final BlockingQueue<Object> read = new ArrayBlockingQueue<Object>(queueCapacity);
+    final BlockingQueue<Object> decoded = new ArrayBlockingQueue<Object>(queueCapacity);
+    final AtomicInteger activeReaders = new AtomicInteger(readThreads);
+    final AtomicInteger activeDecoders = new AtomicInteger(decodeThreads);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+
+    Run(Batch batch) {
+      this.batch = batch;
+    }
+  }
+
+  private static final class FileData {
+    final int index;
+    final ByteBuffer data;
+
+    FileData(int index, ByteBuffer data) {
+      this.index = index;
+      this.data = data;
+    }
+  }
+
+  private static final class DecodedImage {
+    final int index;
+    final Image image;
+
+    DecodedImage(int index, Image image) {
+      this.index = index;
+      this.image = image;
+    }
+  }
+
+  private final class ReadTask implements Runnable {
+    private final Run run;
+
+    ReadTask(Run run) {
+      this.run = run;
+    }
+
+    public void run() {
+      try {
+        Item item;
+        while ((item = run.batch.Next()) != null) {
+          long start = System.nanoTime();
+          ByteBuffer data = null;
+          try {
+            data = ReadFile((String) item.source);
+          } catch (Exception e) {
+            run.batch.Complete(item.index, null, e);
+          } finally {
+            readMetrics.itemCount.incrementAndGet();
+            readMetrics.busyNanos.addAndGet(System.nanoTime() - start);
+          }
+          if (data != null) {
+            boolean queued = false;
+            try {
+              Put(run.read, new FileData(item.index, data), readMetrics);
+              queued = true;
+            } finally {
+              if (!queued)
+                run.batch.Complete(item.index, null,
+                                   new InterruptedException("Batch processing was interrupted"));
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        run.batch.cancelled = true;
+      } finally {
+        if (run.activeReaders.decrementAndGet() == 0) {
+          for (int i = 0; i < decodeThreads; ++i)
+            PutEnd(run.read);
+        }
+      }
+    }
+  }
+
+  private final class DecodeTask implements Runnable {
+    private final Run run;
+
+    DecodeTask(Run run) {
+      this.run = run;
+    }
+
+    public void run() {
+      try {
+        Object next;
+        while ((next = run.read.take()) != END) {
+          FileData file = (FileData) next;
+          long start = System.nanoTime();
+          Image image = null;
+          try {
+            if (run.batch.cancelled)
+              throw new InterruptedException("Batch processing was interrupted");
+            image = Image.FromFileBuffer(file.data);
+          } catch (Exception e) {
+            run.batch.Complete(file.index, null, e);
+          } finally {
+            decodeMetrics.itemCount.incrementAndGet();
+            decodeMetrics.busyNanos.addAndGet(System.nanoTime() - start);
+          }
+          if (image != null) {
+            boolean queued = false;
+            try {
+              Put(run.decoded, new DecodedImage(file.index, image), decodeMetrics);
+              queued = true;
+            } finally {
+              if (!queued) {
+                image.delete();
+                run.batch.Complete(file.index, null,
+                                   new InterruptedException("Batch processing was interrupted"));
+              }
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        run.batch.cancelled = true;
+      } finally {
+        if (run.activeDecoders.decrementAndGet() == 0) {
+          for (int i = 0; i < numThreads; ++i)
+            PutEnd(run.decoded);
+        }
+      }
+    }
+  }
+
+  private final class RecognizeTask implements Runnable {
+    private final Run run;
+
+    RecognizeTask(Run run) {
+      this.run = run;
+    }
+
+    public void run() {
+      CodeEngineSession session = null;
+      try {
+        Object next;
+        while ((next = run.decoded.take()) != END) {
+          DecodedImage decoded = (DecodedImage) next;
+          long start = System.nanoTime();
+          ResultSnapshot result = null;
+          Exception error = null;
+          try {
+            if (run.batch.cancelled)
+              throw new InterruptedException("Batch processing was interrupted");
+            boolean fresh = session == null;
+            if (fresh)
+              session = pool.Borrow(run.batch.profile);
+            try {
+              if (!fresh)
+                session.Reset();
+              result = pool.Process(session, decoded.image);
+            } catch (Exception e) {
+              // The session may be left in any state
+              CodeEngineSession failed = session;
+              session = null;
+              pool.Invalidate(failed);
+              throw e;
+            }
+          } catch (Exception e) {
+            error = e;
+          } finally {
+            decoded.image.delete();
+            recognizeMetrics.itemCount.incrementAndGet();
+            recognizeMetrics.busyNanos.addAndGet(System.nanoTime() - start);
+          }
+          run.batch.Complete(decoded.index, result, error);
+        }
+      } catch (InterruptedException e) {
+        run.batch.cancelled = true;
+      } finally {
+        if (session != null)
+          pool.Return(session);
+        run.done.countDown();
+      }
+    }
+  }
+
+  // The end marker must get through even if the thread was interrupted,
+  // or the next stage would wait forever
+  private static void PutEnd(BlockingQueue<Object> queue) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        queue.put(END);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+}
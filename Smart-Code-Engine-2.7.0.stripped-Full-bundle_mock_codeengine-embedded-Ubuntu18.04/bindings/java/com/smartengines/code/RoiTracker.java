@@ -0,0 +1,338 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.HashMap;
+
+/**
+ * Restricts the processing of a frame sequence to the region around the
+ * objects detected so far.
+ *
+ * <p>Once an object with a quadrangle has been updated on a frame, the
+ * region of interest for the next frame is predicted from the bounding box
+ * of the updated quadrangles, shifted by their motion between the last two
+ * detections and expanded by a margin. {@link #Crop(Image)} then returns a
+ * shallow crop of the frame to be processed instead of the whole frame.
+ * Results obtained on a crop are in crop coordinates; {@link
+ * #MapToFrame(String, Quadrangle)} maps them back to the full frame, using
+ * the crop of the frame each object was last updated on. After
+ * {@code max_misses} consecutive frames without an updated object the
+ * tracker falls back to full frames.
+ *
+ * <p>The session must process frames independently, with barcode.feedMode
+ * set to single. In sequence mode the session integrates consecutive frames
+ * as views of one scene, while every crop has its own origin and scale, so
+ * the objects it tracks would appear to jump from frame to frame.
+ *
+ * <p>Detections are recognized by {@link CodeObject#GetLastUpdatedFrame()}
+ * growing, so the tracker has to see every result of its session and must
+ * be reset together with the session. It is not thread-safe.
+ */
+public class RoiTracker implements AutoCloseable {
+
+  private final double margin;
+  private final int maxMisses;
+  private final int minRoiSize;
+
+  // Crop of the current frame in full-frame coordinates, zero size if none
+  private int roiX = 0;
+  private int roiY = 0;
+  private int roiWidth = 0;
+  private int roiHeight = 0;
+  private ProjectiveTransform roiTransform = null;
+
+  // Last two detections: bounding boxes in full-frame coordinates
+  // (x0, y0, x1, y1) and the frame counter they were made at
+  private boolean tracking = false;
+  private final double[] lastBox = new double[4];
+  private final double[] prevBox = new double[4];
+  private long lastHitFrame = -1;
+  private long prevHitFrame = -1;
+
+  // Crop offsets (x, y) of the frames objects were last updated on, by
+  // object key
+  private final HashMap<String, int[]> objectOffsets = new HashMap<String, int[]>();
+
+  private long frameCounter = 0;
+  private int lastUpdatedFrame = -1;
+  private int misses = 0;
+
+  private long croppedCount = 0;
+  private long fullCount = 0;
+  private long fallbackCount = 0;
+
+  /**
+   * Creates a tracker with a margin of 0.5, falling back after 5 misses.
+   */
+  public RoiTracker() {
+    this(0.5, 5, 64);
+  }
+
+  /**
+   * @param margin       margin added on each side of the predicted region,
+   *                     relative to its size
+   * @param max_misses   consecutive frames without detection after which
+   *                     full frames are processed again
+   * @param min_roi_size minimal width and height of the region in pixels
+   */
+  public RoiTracker(double margin, int max_misses, int min_roi_size) {
+    if (margin < 0)
+      throw new IllegalArgumentException("margin must be non-negative");
+    if (max_misses < 0 || min_roi_size <= 0)
+      throw new IllegalArgumentException("Invalid tracker bounds: max_misses=" + max_misses +
+                                         ", min_roi_size=" + min_roi_size);
+    this.margin = margin;
+    this.maxMisses = max_misses;
+    this.minRoiSize = min_roi_size;
+  }
+
+  /**
+   * Returns a shallow crop of {@code frame} around the predicted region,
+   * to be deleted by the caller, or null if the whole frame should be
+   * processed.
+   */
+  public Image Crop(Image frame) {
+    int width = frame.GetWidth();
+    int height = frame.GetHeight();
+    ++frameCounter;
+    ClearRoi();
+    if (!tracking) {
+      fullCount++;
+      return null;
+    }
+
+    // Linear prediction of the box from the last two detections
+    double dx = 0, dy = 0;
+    if (prevHitFrame >= 0) {
+      double steps = (double) (frameCounter - lastHitFrame) / (lastHitFrame - prevHitFrame);
+      dx = (Center(lastBox, 0) - Center(prevBox, 0)) * steps;
+      dy = (Center(lastBox, 1) - Center(prevBox, 1)) * steps;
+    }
+    double expand = margin * (1 + misses);
+    double box_w = lastBox[2] - lastBox[0];
+    double box_h = lastBox[3] - lastBox[1];
+    double x0 = lastBox[0] + dx - box_w * expand;
+    double y0 = lastBox[1] + dy - box_h * expand;
+    double x1 = lastBox[2] + dx + box_w * expand;
+    double y1 = lastBox[3] + dy + box_h * expand;
+
+    int rx0 = Clamp((int) Math.floor(x0), 0, width);
+    int ry0 = Clamp((int) Math.floor(y0), 0, height);
+    int rx1 = Clamp((int) Math.ceil(x1), 0, width);
+    int ry1 = Clamp((int) Math.ceil(y1), 0, height);
+    if (rx1 - rx0 < minRoiSize) {
+      rx0 = Clamp((rx0 + rx1 - minRoiSize) / 2, 0, Math.max(width - minRoiSize, 0));
+      rx1 = Math.min(rx0 + minRoiSize, width);
+    }
+    if (ry1 - ry0 < minRoiSize) {
+      ry0 = Clamp((ry0 + ry1 - minRoiSize) / 2, 0, Math.max(height - minRoiSize, 0));
+      ry1 = Math.min(ry0 + minRoiSize, height);
+    }
+    if (rx0 == 0 && ry0 == 0 && rx1 == width && ry1 == height) {
+      fullCount++;
+      return null;
+    }
+
+    Rectangle rect = new Rectangle(rx0, ry0, rx1 - rx0, ry1 - ry0);
+    Image crop;
+    try {
+      crop = frame.CloneCroppedShallow(rect);
+    } finally {
+      rect.delete();
+    }
+    roiX = rx0;
+    roiY = ry0;
+    roiWidth = rx1 - rx0;
+    roiHeight = ry1 - ry0;
+    croppedCount++;
+    return crop;
+  }
+
+  /**
+   * Updates the track with the result of processing the frame last passed
+   * to Crop().
+   *
+   * @return true if an object with a quadrangle was updated on this frame
+   */
+  public boolean Update(CodeEngineResult result) {
+    double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+    double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+    int max_updated = lastUpdatedFrame;
+    boolean hit = false;
+    for (CodeObjectsMapIterator it : result.Objects()) {
+      CodeObject code_object = it.GetValue();
+      int updated = code_object.GetLastUpdatedFrame();
+      max_updated = Math.max(max_updated, updated);
+      if (updated <= lastUpdatedFrame)
+        continue;
+      objectOffsets.put(it.GetKey(), new int[] { roiX, roiY });
+      if (!code_object.HasQuadrangle())
+        continue;
+      Quadrangle quad = code_object.GetQuadrangle();
+      for (int i = 0; i < 4; ++i) {
+        Point p = quad.GetPoint(i);
+        x0 = Math.min(x0, p.getX() + roiX);
+        y0 = Math.min(y0, p.getY() + roiY);
+        x1 = Math.max(x1, p.getX() + roiX);
+        y1 = Math.max(y1, p.getY() + roiY);
+      }
+      hit = true;
+    }
+    lastUpdatedFrame = max_updated;
+
+    if (hit) {
+      if (tracking) {
+        System.arraycopy(lastBox, 0, prevBox, 0, 4);
+        prevHitFrame = lastHitFrame;
+      }
+      lastBox[0] = x0;
+      lastBox[1] = y0;
+      lastBox[2] = x1;
+      lastBox[3] = y1;
+      lastHitFrame = frameCounter;
+      tracking = true;
+      misses = 0;
+    } else if (tracking && ++misses > maxMisses) {
+      StopTracking();
+      fallbackCount++;
+    }
+    return hit;
+  }
+
+  /**
+   * Maps the quadrangle of the result object {@code object_key} to
+   * full-frame coordinates. Objects keep the quadrangle of the frame they
+   * were last updated on, so the crop of that frame is used, which may
+   * differ from the last one. Returns a new quadrangle.
+   */
+  public Quadrangle MapToFrame(String object_key, Quadrangle quad) {
+    int[] offset = objectOffsets.get(object_key);
+    if (offset == null)
+      offset = new int[] { roiX, roiY };
+    Point[] points = new Point[4];
+    try {
+      for (int i = 0; i < 4; ++i) {
+        Point p = quad.GetPoint(i);
+        points[i] = new Point(p.getX() + offset[0], p.getY() + offset[1]);
+      }
+      return new Quadrangle(points[0], points[1], points[2], points[3]);
+    } finally {
+      for (Point p : points) {
+        if (p != null)
+          p.delete();
+      }
+    }
+  }
+
+  /**
+   * Transform from the coordinates of the last processed crop to full-frame
+   * coordinates, or null if the whole frame was processed. Only applies to
+   * objects updated on the last frame. Owned by the tracker and valid until
+   * the next Crop().
+   */
+  public ProjectiveTransform GetTransform() {
+    if (roiWidth == 0)
+      return null;
+    if (roiTransform == null) {
+      Quadrangle src = RectQuad(0, 0, roiWidth, roiHeight);
+      Quadrangle dst = RectQuad(roiX, roiY, roiWidth, roiHeight);
+      try {
+        roiTransform = ProjectiveTransform.Create(src, dst);
+      } finally {
+        src.delete();
+        dst.delete();
+      }
+    }
+    return roiTransform;
+  }
+
+  /**
+   * Returns true if the last frame was cropped.
+   */
+  public boolean IsCropped() {
+    return roiWidth != 0;
+  }
+
+  public boolean IsTracking() {
+    return tracking;
+  }
+
+  public int GetMissCount() {
+    return misses;
+  }
+
+  public long GetCroppedFrameCount() {
+    return croppedCount;
+  }
+
+  public long GetFullFrameCount() {
+    return fullCount;
+  }
+
+  /**
+   * Number of times the track was lost and full frames were processed
+   * again.
+   */
+  public long GetFallbackCount() {
+    return fallbackCount;
+  }
+
+  /**
+   * Forgets the track, to be called whenever the session is reset.
+   */
+  public void Reset() {
+    StopTracking();
+    ClearRoi();
+    objectOffsets.clear();
+    frameCounter = 0;
+    lastUpdatedFrame = -1;
+  }
+
+  public void close() {
+    ClearRoi();
+  }
+
+  private void StopTracking() {
+    tracking = false;
+    lastHitFrame = -1;
+    prevHitFrame = -1;
+    misses = 0;
+  }
+
+  private void ClearRoi() {
+    roiX = roiY = roiWidth = roiHeight = 0;
+    if (roiTransform != null) {
+      roiTransform.delete();
+      roiTransform = null;
+    }
+  }
+
+  private static double Center(double[] box, int axis) {
+    return (box[axis] + box[axis + 2]) / 2;
+  }
+
+  private static int Clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(value, max));
+  }
+
+  private static Quadrangle RectQuad(double x, double y, double width, double height) {
+    Point a = new Point(x, y);
+    Point b = new Point(x + width, y);
+    Point c = new Point(x + width, y + height);
+    Point d = new Point(x, y + height);
+    try {
+      return new Quadrangle(a, b, c, d);
+    } finally {
+      a.delete();
+      b.delete();
+      c.delete();
+      d.delete();
+    }
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 128-bit fingerprint of a session option map.
+ *
+ * <p>The fingerprint is a hash of the canonical form of the map: options
+ * sorted by name, each name and value length-prefixed. Settings with equal
+ * options have equal fingerprints regardless of the order the options were
+ * set in, so the fingerprint can key pools, result caches and metrics
+ * instead of the settings themselves.
+ */
+public final class SettingsFingerprint {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final long high;
+  private final long low;
+
+  private SettingsFingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Fingerprint of all options of {@code settings}. Walks the native option
+   * map once; keep the result rather than calling it per request.
+   */
+  public static SettingsFingerprint Of(CodeEngineSessionSettings settings) {
+    TreeMap<String, String> options = new TreeMap<String, String>();
+    for (StringsMapIterator it : settings.Settings())
+      options.put(it.GetKey(), it.GetValue());
+    return Canonical(options);
+  }
+
+  /**
+   * Fingerprint of an option map.
+   */
+  public static SettingsFingerprint Of(Map<String, String> options) {
+    return Canonical(new TreeMap<String, String>(options));
+  }
+
+  public long GetHigh() {
+    return high;
+  }
+
+  public long GetLow() {
+    return low;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof SettingsFingerprint))
+      return false;
+    SettingsFingerprint fingerprint = (SettingsFingerprint) other;
+    return high == fingerprint.high && low == fingerprint.low;
+  }
+
+  @Override
+  public int hashCode() {
+    // The bits are uniformly distributed already
+    return (int) low;
+  }
+
+  /**
+   * The fingerprint as 32 hexadecimal digits.
+   */
+  @Override
+  public String toString() {
+    char[] digits = new char[32];
+    for (int i = 0; i < 16; ++i) {
+      digits[15 - i] = HEX[(int) (high >>> (4 * i)) & 0xf];
+      digits[31 - i] = HEX[(int) (low >>> (4 * i)) & 0xf];
+    }
+    return new String(digits);
+  }
+
+  private static SettingsFingerprint Canonical(TreeMap<String, String> options) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to provide MD5
+      throw new RuntimeException(e);
+    }
+    for (Map.Entry<String, String> option : options.entrySet()) {
+      Update(digest, option.getKey());
+      Update(digest, option.getValue());
+    }
+    byte[] hash = digest.digest();
+    return new SettingsFingerprint(ToLong(hash, 0), ToLong(hash, 8));
+  }
+
+  private static void Update(MessageDigest digest, String value) {
+    byte[] bytes = value.getBytes(UTF8);
+    int length = bytes.length;
+    digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16),
+                               (byte) (length >>> 8), (byte) length });
+    digest.update(bytes);
+  }
+
+  private static long ToLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = 0; i < 8; ++i)
+      value = (value << 8) | (bytes[offset + i] & 0xff);
+    return value;
+  }
+
+}
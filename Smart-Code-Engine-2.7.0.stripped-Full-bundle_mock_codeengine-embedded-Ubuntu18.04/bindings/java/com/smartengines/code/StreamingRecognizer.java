@@ -0,0 +1,372 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+/**
+ * Feeds a video stream into a single session on a dedicated worker thread,
+ * always processing the most recent frame.
+ *
+ * <p>Producers hand frames over with {@link #Offer(Image)} from any thread.
+ * At most one frame waits for processing: a frame offered while another one
+ * is pending replaces it, and the replaced frame is counted as dropped. So
+ * when recognition is slower than the camera, latency and memory stay
+ * bounded instead of growing with a queue. Once the session reports a
+ * terminal result the stream is finished and further frames are refused
+ * until {@link #Restart()}.
+ *
+ * <p>The recognizer takes ownership of offered frames and deletes each of
+ * them once it has been processed, dropped or refused. The session is not
+ * owned and must outlive the recognizer; it must not be used by others
+ * while the recognizer is open.
+ */
+public class StreamingRecognizer implements AutoCloseable {
+
+  /**
+   * Receives the outcome of processed frames on the worker thread. The
+   * result passed is owned by the session and is only valid during the
+   * call; take a {@link ResultSnapshot} to keep it. Exceptions thrown by
+   * the listener are ignored.
+   */
+  public static class Listener {
+    /**
+     * Called after each processed frame.
+     *
+     * @param latency_ns time from Offer() of the frame to the end of its
+     *                   processing
+     */
+    public void ResultReceived(CodeEngineResult result, long latency_ns) {
+    }
+
+    /**
+     * Called once the session has reported a terminal result.
+     */
+    public void StreamEnded(CodeEngineResult result) {
+    }
+
+    public void ProcessingFailed(Exception error) {
+    }
+  }
+
+  private final CodeEngineSession session;
+  private final Listener listener;
+  private final Thread worker;
+  private volatile FrameQualityGate qualityGate = null;
+  private volatile RoiTracker roiTracker = null;
+
+  private final Object lock = new Object();
+  // Guarded by lock
+  private Image pending = null;
+  private long pendingSince = 0;
+  private boolean busy = false;
+  // Restart() is resetting the session, frames wait until it is done
+  private boolean resetting = false;
+  private boolean finished = false;
+  private boolean closed = false;
+  private long processedCount = 0;
+  private long droppedCount = 0;
+  private long skippedCount = 0;
+  private long lastLatencyNanos = 0;
+  private long maxLatencyNanos = 0;
+  private long totalLatencyNanos = 0;
+
+  /**
+   * Starts the worker thread processing frames with {@code session}.
+   */
+  public StreamingRecognizer(CodeEngineSession session, Listener listener) {
+    if (session == null)
+      throw new IllegalArgumentException("session is null");
+    this.session = session;
+    this.listener = listener != null ? listener : new Listener();
+    this.worker = new Thread(new Runnable() {
+      public void run() {
+        Work();
+      }
+    }, "StreamingRecognizer");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Checks every frame with {@code gate} on the worker thread right before
+   * processing it, and skips the frames it rejects. Pass null to process
+   * all frames.
+   */
+  public void SetQualityGate(FrameQualityGate gate) {
+    qualityGate = gate;
+  }
+
+  /**
+   * Processes only the region around previously detected objects, as
+   * predicted by {@code tracker}. Quadrangles in the results passed to the
+   * listener are then in the coordinates of the crop they were found on;
+   * map them with {@link RoiTracker#MapToFrame(String, Quadrangle)} during
+   * the listener call.
+   * The tracker must be set before the first frame or right after
+   * Restart(), and the session must use barcode.feedMode=single, see
+   * {@link RoiTracker}. Pass null to process full frames.
+   */
+  public void SetRoiTracker(RoiTracker tracker) {
+    roiTracker = tracker;
+  }
+
+  /**
+   * Hands {@code frame} over for processing, replacing the pending frame
+   * if there is one.
+   *
+   * @return false if the frame was refused because the stream is finished
+   *         or the recognizer is closed
+   */
+  public boolean Offer(Image frame) {
+    if (frame == null)
+      throw new IllegalArgumentException("frame is null");
+    Image replaced;
+    synchronized (lock) {
+      if (closed || finished) {
+        replaced = frame;
+      } else {
+        replaced = pending;
+        if (replaced != null)
+          droppedCount++;
+        pending = frame;
+        pendingSince = System.nanoTime();
+        lock.notifyAll();
+      }
+    }
+    if (replaced != null)
+      replaced.delete();
+    return replaced != frame;
+  }
+
+  /**
+   * Returns true once the session has reported a terminal result.
+   */
+  public boolean IsFinished() {
+    synchronized (lock) {
+      return finished;
+    }
+  }
+
+  /**
+   * Waits up to {@code timeout_ms} for the stream to finish.
+   *
+   * @return true if the stream has finished
+   */
+  public boolean AwaitFinished(long timeout_ms) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout_ms * 1000000L;
+    synchronized (lock) {
+      while (!finished && !closed) {
+        long remaining_ms = (deadline - System.nanoTime()) / 1000000L;
+        if (remaining_ms <= 0)
+          break;
+        lock.wait(remaining_ms);
+      }
+      return finished;
+    }
+  }
+
+  /**
+   * Drops the pending frame, waits for the frame being processed and resets
+   * the session, so that a new stream can be processed. Frames offered
+   * during the reset belong to the new stream.
+   */
+  public void Restart() throws InterruptedException {
+    Image dropped;
+    synchronized (lock) {
+      while (resetting)
+        lock.wait();
+      if (closed)
+        throw new IllegalStateException("Streaming recognizer is closed");
+      // The worker takes no frames while resetting is set
+      resetting = true;
+    }
+    try {
+      synchronized (lock) {
+        dropped = pending;
+        pending = null;
+        while (busy)
+          lock.wait();
+        finished = false;
+      }
+      if (dropped != null)
+        dropped.delete();
+
+      // Reset outside of the lock so that Offer() is not held up
+      session.Reset();
+      RoiTracker tracker = roiTracker;
+      if (tracker != null)
+        tracker.Reset();
+    } finally {
+      synchronized (lock) {
+        resetting = false;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  public long GetProcessedFrameCount() {
+    synchronized (lock) {
+      return processedCount;
+    }
+  }
+
+  public long GetDroppedFrameCount() {
+    synchronized (lock) {
+      return droppedCount;
+    }
+  }
+
+  /**
+   * Number of frames rejected by the quality gate.
+   */
+  public long GetSkippedFrameCount() {
+    synchronized (lock) {
+      return skippedCount;
+    }
+  }
+
+  /**
+   * Latency of the last processed frame, from Offer() to the end of
+   * Process(), in nanoseconds.
+   */
+  public long GetLastLatencyNanos() {
+    synchronized (lock) {
+      return lastLatencyNanos;
+    }
+  }
+
+  public long GetMaxLatencyNanos() {
+    synchronized (lock) {
+      return maxLatencyNanos;
+    }
+  }
+
+  public long GetMeanLatencyNanos() {
+    synchronized (lock) {
+      return processedCount == 0 ? 0 : totalLatencyNanos / processedCount;
+    }
+  }
+
+  /**
+   * Stops the worker thread after the frame being processed and deletes
+   * the pending frame. The session is not deleted.
+   */
+  public void close() {
+    Image dropped;
+    synchronized (lock) {
+      if (closed)
+        return;
+      closed = true;
+      dropped = pending;
+      pending = null;
+      lock.notifyAll();
+    }
+    if (dropped != null)
+      dropped.delete();
+    if (Thread.currentThread() == worker)
+      return;
+    boolean interrupted = false;
+    while (worker.isAlive()) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private void Work() {
+    while (true) {
+      Image frame;
+      long since;
+      synchronized (lock) {
+        while (!closed && (pending == null || resetting)) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            // Only close() stops the worker
+          }
+        }
+        if (closed)
+          return;
+        frame = pending;
+        since = pendingSince;
+        pending = null;
+        busy = true;
+      }
+
+      try {
+        FrameQualityGate gate = qualityGate;
+        if (gate == null || gate.Accept(frame)) {
+          ProcessFrame(frame, since);
+        } else {
+          synchronized (lock) {
+            skippedCount++;
+          }
+        }
+      } catch (Exception e) {
+        try {
+          listener.ProcessingFailed(e);
+        } catch (RuntimeException ignored) {
+          // A failing listener must not stall the stream
+        }
+      } finally {
+        frame.delete();
+        synchronized (lock) {
+          busy = false;
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private void ProcessFrame(Image frame, long since) {
+    RoiTracker tracker = roiTracker;
+    Image crop = tracker != null ? tracker.Crop(frame) : null;
+    CodeEngineResult result;
+    try {
+      result = session.Process(crop != null ? crop : frame);
+    } finally {
+      if (crop != null)
+        crop.delete();
+    }
+    long latency = System.nanoTime() - since;
+    boolean terminal = session.IsResultTerminal();
+    if (tracker != null)
+      tracker.Update(result);
+    Image dropped = null;
+    synchronized (lock) {
+      processedCount++;
+      lastLatencyNanos = latency;
+      maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+      totalLatencyNanos += latency;
+      if (terminal) {
+        finished = true;
+        dropped = pending;
+        pending = null;
+        lock.notifyAll();
+      }
+    }
+    if (dropped != null)
+      dropped.delete();
+    try {
+      listener.ResultReceived(result, latency);
+    } catch (RuntimeException e) {
+      // A failing listener must not stall the stream
+    }
+    if (terminal) {
+      try {
+        listener.StreamEnded(result);
+      } catch (RuntimeException e) {
+        // A failing listener must not stall the stream
+      }
+    }
+  }
+
+}
@@ -0,0 +1,286 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Recognizes large images, such as full-page scans, by processing
+ * overlapping tiles in parallel.
+ *
+ * <p>The image is split into tiles of {@code tile_size} pixels overlapping
+ * by {@code overlap} pixels, created with
+ * {@link Image#CloneCroppedShallow(Rectangle)} without copying pixels. Each
+ * tile is processed on its own session borrowed from a
+ * {@link CodeEngineSessionPool}, and the tile results are merged into one
+ * {@link ResultSnapshot} in image coordinates. An object lying in the
+ * overlap of two tiles is reported once: objects of the same type from
+ * different tiles are considered the same if their bounding boxes have an
+ * IoU of at least {@code iou_threshold}, or if they carry the same payload
+ * and their bounding boxes intersect. The object with the higher confidence
+ * is kept.
+ *
+ * <p>The overlap should be at least the size of the largest object
+ * expected, so that every object lies entirely within some tile. Tiling
+ * suits single-image settings, such as barcode.roiDetectionMode=anywhere,
+ * and not video sequence modes.
+ */
+public class TiledRecognizer implements AutoCloseable {
+
+  private final CodeEngineSessionPool pool;
+  private final ForkJoinPool workers;
+  private final int tileSize;
+  private final int overlap;
+  private final double iouThreshold;
+
+  /**
+   * Creates a recognizer processing up to {@code num_threads} tiles at a
+   * time, with an IoU threshold of 0.5. The pool is not owned and should
+   * allow at least {@code num_threads} sessions.
+   */
+  public TiledRecognizer(CodeEngineSessionPool pool, int num_threads, int tile_size,
+                         int overlap) {
+    this(pool, num_threads, tile_size, overlap, 0.5);
+  }
+
+  public TiledRecognizer(CodeEngineSessionPool pool, int num_threads, int tile_size,
+                         int overlap, double iou_threshold) {
+    if (pool == null)
+      throw new IllegalArgumentException("pool is null");
+    if (num_threads <= 0)
+      throw new IllegalArgumentException("num_threads must be positive");
+    if (tile_size <= 0 || overlap < 0 || overlap >= tile_size)
+      throw new IllegalArgumentException("Invalid tiling: tile_size=" + tile_size +
+                                         ", overlap=" + overlap);
+    if (iou_threshold <= 0 || iou_threshold > 1)
+      throw new IllegalArgumentException("iou_threshold must be in (0, 1]");
+    this.pool = pool;
+    this.workers = new ForkJoinPool(num_threads);
+    this.tileSize = tile_size;
+    this.overlap = overlap;
+    this.iouThreshold = iou_threshold;
+  }
+
+  /**
+   * Processes {@code image} tile by tile with sessions spawned with
+   * {@code settings} and returns the merged result. Blocks until all tiles
+   * are processed.
+   */
+  public ResultSnapshot Process(Image image, CodeEngineSessionSettings settings)
+      throws InterruptedException {
+    int[] xs = TileOffsets(image.GetWidth());
+    int[] ys = TileOffsets(image.GetHeight());
+
+    final List<Image> tiles = new ArrayList<Image>();
+    final List<int[]> offsets = new ArrayList<int[]>();
+    try {
+      for (int y : ys) {
+        for (int x : xs) {
+          int width = Math.min(tileSize, image.GetWidth() - x);
+          int height = Math.min(tileSize, image.GetHeight() - y);
+          Rectangle rect = new Rectangle(x, y, width, height);
+          try {
+            tiles.add(xs.length == 1 && ys.length == 1 ? null : image.CloneCroppedShallow(rect));
+          } finally {
+            rect.delete();
+          }
+          offsets.add(new int[] { x, y });
+        }
+      }
+
+      List<Callable<ResultSnapshot>> tasks = new ArrayList<Callable<ResultSnapshot>>();
+      for (Image tile : tiles)
+        tasks.add(new TileTask(tile != null ? tile : image, settings));
+      List<ResultSnapshot> results = new ArrayList<ResultSnapshot>();
+      for (Future<ResultSnapshot> future : workers.invokeAll(tasks))
+        results.add(Get(future));
+      return Merge(results, offsets);
+    } finally {
+      for (Image tile : tiles) {
+        if (tile != null)
+          tile.delete();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tiles an image of the given size is split into.
+   */
+  public int GetTileCount(int width, int height) {
+    return TileOffsets(width).length * TileOffsets(height).length;
+  }
+
+  /**
+   * Shuts the worker threads down. The pool is not closed.
+   */
+  public void close() {
+    workers.shutdown();
+  }
+
+  private int[] TileOffsets(int length) {
+    if (length <= tileSize)
+      return new int[] { 0 };
+    int step = tileSize - overlap;
+    int count = (length - tileSize + step - 1) / step + 1;
+    int[] offsets = new int[count];
+    for (int i = 0; i < count - 1; ++i)
+      offsets[i] = i * step;
+    offsets[count - 1] = length - tileSize;
+    return offsets;
+  }
+
+  private ResultSnapshot Merge(List<ResultSnapshot> results, List<int[]> offsets) {
+    List<Candidate> candidates = new ArrayList<Candidate>();
+    boolean terminal = true;
+    for (int t = 0; t < results.size(); ++t) {
+      ResultSnapshot result = results.get(t);
+      terminal &= result.IsTerminal();
+      for (int i = 0; i < result.GetObjectCount(); ++i)
+        candidates.add(new Candidate(t, result.GetObject(i), offsets.get(t)));
+    }
+
+    // Keep the most confident of duplicates
+    List<Candidate> sorted = new ArrayList<Candidate>(candidates);
+    Collections.sort(sorted, new Comparator<Candidate>() {
+      public int compare(Candidate a, Candidate b) {
+        return Float.compare(b.object.GetConfidence(), a.object.GetConfidence());
+      }
+    });
+    List<Candidate> kept = new ArrayList<Candidate>();
+    for (Candidate candidate : sorted) {
+      candidate.kept = true;
+      for (Candidate other : kept) {
+        if (IsDuplicate(candidate, other)) {
+          candidate.kept = false;
+          break;
+        }
+      }
+      if (candidate.kept)
+        kept.add(candidate);
+    }
+
+    ResultSnapshot.Merger merger = new ResultSnapshot.Merger();
+    for (Candidate candidate : candidates) {
+      if (candidate.kept)
+        merger.Add(candidate.object, candidate.dx, candidate.dy);
+    }
+    return merger.Build(terminal);
+  }
+
+  private boolean IsDuplicate(Candidate a, Candidate b) {
+    if (a.tile == b.tile || !a.object.GetType().equals(b.object.GetType()))
+      return false;
+    boolean same_payload = !a.payload.isEmpty() && a.payload.equals(b.payload);
+    if (a.box == null || b.box == null)
+      return same_payload;
+    double ix = Math.min(a.box[2], b.box[2]) - Math.max(a.box[0], b.box[0]);
+    double iy = Math.min(a.box[3], b.box[3]) - Math.max(a.box[1], b.box[1]);
+    if (ix <= 0 || iy <= 0)
+      return false;
+    double inter = ix * iy;
+    double union = Area(a.box) + Area(b.box) - inter;
+    return same_payload || (union > 0 && inter / union >= iouThreshold);
+  }
+
+  private static double Area(double[] box) {
+    return (box[2] - box[0]) * (box[3] - box[1]);
+  }
+
+  private static ResultSnapshot Get(Future<ResultSnapshot> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private final class TileTask implements Callable<ResultSnapshot> {
+    private final Image tile;
+    private final CodeEngineSessionSettings settings;
+
+    TileTask(Image tile, CodeEngineSessionSettings settings) {
+      this.tile = tile;
+      this.settings = settings;
+    }
+
+    public ResultSnapshot call() throws Exception {
+      CodeEngineSession session = pool.Borrow(settings);
+      boolean ok = false;
+      try {
+        ResultSnapshot result = pool.Process(session, tile);
+        ok = true;
+        return result;
+      } finally {
+        if (ok)
+          pool.Return(session);
+        else
+          pool.Invalidate(session);
+      }
+    }
+  }
+
+  private static final class Candidate {
+    final int tile;
+    final ResultSnapshot.CodeObjectSnapshot object;
+    final double dx;
+    final double dy;
+    // Bounding box in image coordinates (x0, y0, x1, y1), null without quad
+    final double[] box;
+    final String payload;
+    boolean kept = false;
+
+    Candidate(int tile, ResultSnapshot.CodeObjectSnapshot object, int[] offset) {
+      this.tile = tile;
+      this.object = object;
+      this.dx = offset[0];
+      this.dy = offset[1];
+
+      double[] quad = object.GetQuadrangle();
+      if (quad != null) {
+        box = new double[] { Double.MAX_VALUE, Double.MAX_VALUE,
+                             -Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (int i = 0; i < 8; i += 2) {
+          box[0] = Math.min(box[0], quad[i] + dx);
+          box[1] = Math.min(box[1], quad[i + 1] + dy);
+          box[2] = Math.max(box[2], quad[i] + dx);
+          box[3] = Math.max(box[3], quad[i + 1] + dy);
+        }
+      } else {
+        box = null;
+      }
+
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < object.GetFieldsCount(); ++i) {
+        ResultSnapshot.CodeFieldSnapshot field = object.GetField(i);
+        if (!field.HasOcrStringRepresentation() && !field.HasBinaryRepresentation())
+          continue;
+        sb.append(field.Name()).append('\0');
+        if (field.HasOcrStringRepresentation())
+          sb.append(field.GetOcrString());
+        sb.append('\0');
+        if (field.HasBinaryRepresentation())
+          sb.append(field.GetBase64String());
+        sb.append('\0');
+      }
+      payload = sb.toString();
+    }
+  }
+
+}
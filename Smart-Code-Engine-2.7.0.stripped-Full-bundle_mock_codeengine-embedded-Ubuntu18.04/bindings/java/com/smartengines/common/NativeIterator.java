@@ -0,0 +1,20 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+/**
+ * Operations shared by the native collection iterators, which lets
+ * {@link NativeRange} drive any of them.
+ */
+public interface NativeIterator<I extends NativeIterator<I>> {
+
+  boolean Equals(I rvalue);
+
+  void Advance();
+
+  void delete();
+
+}
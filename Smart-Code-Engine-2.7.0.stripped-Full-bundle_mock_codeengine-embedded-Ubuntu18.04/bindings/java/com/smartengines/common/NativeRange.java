@@ -0,0 +1,86 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.common;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterable view of a native collection delimited by a Begin()/End()
+ * iterator pair, for use in for-each loops:
+ *
+ * <pre>
+ * for (CodeObjectsMapIterator it : result.Objects()) {
+ *   CodeObject code_object = it.GetValue();
+ *   // ...
+ * }
+ * </pre>
+ *
+ * <p>Each traversal acquires the begin and end iterators once and hands out
+ * the begin iterator itself as the cursor, advancing it in place. The cursor
+ * is therefore only valid until the next call to hasNext() or next(). Both
+ * native iterators are deleted as soon as the traversal is exhausted, or
+ * when the traversal iterator is closed after leaving a loop early. The
+ * view keeps the owning collection reachable while it is in use.
+ */
+public abstract class NativeRange<I extends NativeIterator<I>> implements Iterable<I> {
+
+  protected abstract I Begin();
+
+  protected abstract I End();
+
+  public Cursor iterator() {
+    return new Cursor(Begin(), End());
+  }
+
+  /**
+   * Traversal over the range, closeable to release the native iterators
+   * before the end of the range is reached.
+   */
+  public final class Cursor implements Iterator<I>, AutoCloseable {
+    private I current;
+    private I end;
+    private boolean advance_pending = false;
+
+    private Cursor(I begin, I end) {
+      this.current = begin;
+      this.end = end;
+    }
+
+    public boolean hasNext() {
+      if (current == null)
+        return false;
+      if (advance_pending) {
+        current.Advance();
+        advance_pending = false;
+      }
+      if (current.Equals(end))
+        close();
+      return current != null;
+    }
+
+    public I next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      advance_pending = true;
+      return current;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("Native collections are read-only");
+    }
+
+    public void close() {
+      if (current != null) {
+        current.delete();
+        end.delete();
+        current = null;
+        end = null;
+      }
+    }
+  }
+
+}
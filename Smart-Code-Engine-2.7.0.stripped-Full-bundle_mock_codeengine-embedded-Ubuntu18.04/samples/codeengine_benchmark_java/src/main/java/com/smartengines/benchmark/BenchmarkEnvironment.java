@@ -0,0 +1,117 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.code.*;
+import com.smartengines.common.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Shared setup of the benchmarks: the native library, the engine and the
+ * input images. Configured with system properties:
+ *
+ *   codeengine.signature - personalized signature (see doc/README.html)
+ *   codeengine.image     - image to process, a synthetic one is used if unset
+ */
+final class BenchmarkEnvironment {
+
+  static {
+    System.loadLibrary("jnicodeengine");
+  }
+
+  private static CodeEngine engine;
+
+  private BenchmarkEnvironment() {
+  }
+
+  static String Signature() {
+    return System.getProperty("codeengine.signature", "");
+  }
+
+  /**
+   * Engine shared by all benchmarks of one forked JVM. Never deleted, the
+   * fork exits right after its benchmark.
+   */
+  static synchronized CodeEngine Engine() {
+    if (engine == null)
+      engine = CodeEngine.CreateFromEmbeddedBundle(false);
+    return engine;
+  }
+
+  /**
+   * Default session settings with the engines of {@code group} enabled.
+   */
+  static CodeEngineSessionSettings SettingsFor(EngineSettingsGroup group) {
+    CodeEngineSessionSettings settings = Engine().GetDefaultSessionSettings();
+    String engine_name = jnicodeengine.toString(group);
+    settings.SetOption(engine_name + ".enabled", "true");
+    if (group == EngineSettingsGroup.Barcode)
+      settings.SetOption(engine_name + ".COMMON.enabled", "true");
+    return settings;
+  }
+
+  static EngineSettingsGroup ParseGroup(String name) {
+    EngineSettingsGroup[] groups = {
+      EngineSettingsGroup.Barcode, EngineSettingsGroup.Card, EngineSettingsGroup.CodeTextLine,
+      EngineSettingsGroup.Mrz, EngineSettingsGroup.PaymentDetails, EngineSettingsGroup.LicensePlate,
+      EngineSettingsGroup.ShippingContainer
+    };
+    for (EngineSettingsGroup group : groups) {
+      if (group.toString().equals(name))
+        return group;
+    }
+    throw new IllegalArgumentException("Unknown engine settings group: " + name);
+  }
+
+  /**
+   * The image given by codeengine.image, or a synthetic 1280x720 one.
+   */
+  static Image InputImage() {
+    String path = System.getProperty("codeengine.image");
+    if (path != null && !path.isEmpty())
+      return Image.FromFile(path);
+    return Image.FromBuffer(RawPixels(1280, 720, 3), 1280, 720, 1280 * 3, 3);
+  }
+
+  /**
+   * Noise image of {@code width} x {@code height} with {@code channels}
+   * interleaved 8-bit channels and no row padding.
+   */
+  static byte[] RawPixels(int width, int height, int channels) {
+    byte[] pixels = new byte[width * height * channels];
+    new Random(width * 31 + height).nextBytes(pixels);
+    return pixels;
+  }
+
+  /**
+   * Noise image of {@code width} x {@code height} encoded in {@code format}
+   * ("png" or "jpg").
+   */
+  static byte[] EncodedImage(int width, int height, String format) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    Random random = new Random(width * 31 + height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x)
+        image.setRGB(x, y, random.nextInt(0x1000000));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!ImageIO.write(image, format, out))
+      throw new IOException("No image writer for " + format);
+    return out.toByteArray();
+  }
+
+  static int[] ParseResolution(String resolution) {
+    int x = resolution.indexOf('x');
+    return new int[] { Integer.parseInt(resolution.substring(0, x)),
+                       Integer.parseInt(resolution.substring(x + 1)) };
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.common.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of reading binary field values out of a ByteString, per payload
+ * size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteStringBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int size;
+
+  private ByteString bytes;
+  private byte[] buffer;
+
+  @Setup
+  public void Setup() {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    bytes = new ByteString(data);
+    buffer = new byte[size];
+  }
+
+  @TearDown
+  public void TearDown() {
+    bytes.delete();
+  }
+
+  @Benchmark
+  public String GetBase64String() {
+    MutableString base64 = bytes.GetBase64String();
+    try {
+      return base64.GetCStr();
+    } finally {
+      base64.delete();
+    }
+  }
+
+  @Benchmark
+  public byte[] GetBytes() {
+    return bytes.GetBytes();
+  }
+
+  @Benchmark
+  public int CopyToBuffer() {
+    return bytes.CopyToBuffer(buffer, 0);
+  }
+
+}
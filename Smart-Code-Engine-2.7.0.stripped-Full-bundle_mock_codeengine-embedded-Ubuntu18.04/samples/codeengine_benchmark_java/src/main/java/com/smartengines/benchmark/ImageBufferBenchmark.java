@@ -0,0 +1,65 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.common.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of Image.FromBuffer() on raw RGB pixels, per resolution. Every
+ * operation includes the delete() of the created image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageBufferBenchmark {
+
+  @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+  public String resolution;
+
+  private int width;
+  private int height;
+  private byte[] pixels;
+  private ByteBuffer pixelsDirect;
+
+  @Setup
+  public void Setup() {
+    int[] size = BenchmarkEnvironment.ParseResolution(resolution);
+    width = size[0];
+    height = size[1];
+    pixels = BenchmarkEnvironment.RawPixels(width, height, 3);
+    pixelsDirect = ByteBuffer.allocateDirect(pixels.length);
+    pixelsDirect.put(pixels).flip();
+  }
+
+  @Benchmark
+  public int FromBuffer() {
+    Image image = Image.FromBuffer(pixels, width, height, width * 3, 3);
+    try {
+      return image.GetWidth();
+    } finally {
+      image.delete();
+    }
+  }
+
+  @Benchmark
+  public int FromDirectBuffer() {
+    Image image = Image.FromBuffer(pixelsDirect, width, height, width * 3, 3);
+    try {
+      return image.GetWidth();
+    } finally {
+      image.delete();
+    }
+  }
+
+}
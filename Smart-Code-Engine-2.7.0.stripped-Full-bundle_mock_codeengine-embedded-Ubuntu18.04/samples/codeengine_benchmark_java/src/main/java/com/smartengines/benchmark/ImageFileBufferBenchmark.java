@@ -0,0 +1,64 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.common.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of Image.FromFileBuffer() on encoded images, per resolution and
+ * file format. Every operation includes the delete() of the created image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageFileBufferBenchmark {
+
+  @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+  public String resolution;
+
+  @Param({"jpg", "png"})
+  public String format;
+
+  private byte[] data;
+  private ByteBuffer dataDirect;
+
+  @Setup
+  public void Setup() throws Exception {
+    int[] size = BenchmarkEnvironment.ParseResolution(resolution);
+    data = BenchmarkEnvironment.EncodedImage(size[0], size[1], format);
+    dataDirect = ByteBuffer.allocateDirect(data.length);
+    dataDirect.put(data).flip();
+  }
+
+  @Benchmark
+  public int FromFileBuffer() {
+    Image image = Image.FromFileBuffer(data);
+    try {
+      return image.GetWidth();
+    } finally {
+      image.delete();
+    }
+  }
+
+  @Benchmark
+  public int FromFileDirectBuffer() {
+    Image image = Image.FromFileBuffer(dataDirect);
+    try {
+      return image.GetWidth();
+    } finally {
+      image.delete();
+    }
+  }
+
+}
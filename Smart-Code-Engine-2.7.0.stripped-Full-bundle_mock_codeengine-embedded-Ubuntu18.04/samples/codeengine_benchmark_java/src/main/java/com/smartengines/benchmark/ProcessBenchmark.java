@@ -0,0 +1,57 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.code.*;
+import com.smartengines.common.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of a single-image Process() call per engine settings group,
+ * including the Reset() which prepares the session for the next image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessBenchmark {
+
+  @Param({"Barcode", "Mrz", "Card", "CodeTextLine", "PaymentDetails", "LicensePlate",
+          "ShippingContainer"})
+  public String group;
+
+  private CodeEngineSessionSettings settings;
+  private CodeEngineSession session;
+  private Image image;
+
+  @Setup
+  public void Setup() {
+    settings = BenchmarkEnvironment.SettingsFor(BenchmarkEnvironment.ParseGroup(group));
+    session = BenchmarkEnvironment.Engine().SpawnSession(settings, BenchmarkEnvironment.Signature());
+    image = BenchmarkEnvironment.InputImage();
+  }
+
+  @TearDown
+  public void TearDown() {
+    image.delete();
+    session.delete();
+    settings.delete();
+  }
+
+  @Benchmark
+  public int Process() {
+    CodeEngineResult result = session.Process(image);
+    int count = result.GetObjectCount();
+    session.Reset();
+    return count;
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.code.*;
+import com.smartengines.common.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of reading a recognition result through the map iterators. The
+ * result is produced once by processing the input image with barcode
+ * recognition enabled, so codeengine.image should contain some barcodes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultTraversalBenchmark {
+
+  private CodeEngineSessionSettings settings;
+  private CodeEngineSession session;
+  private CodeEngineResult result;
+
+  @Setup
+  public void Setup() {
+    settings = BenchmarkEnvironment.SettingsFor(EngineSettingsGroup.Barcode);
+    session = BenchmarkEnvironment.Engine().SpawnSession(settings, BenchmarkEnvironment.Signature());
+    Image image = BenchmarkEnvironment.InputImage();
+    try {
+      result = session.Process(image);
+    } finally {
+      image.delete();
+    }
+  }
+
+  @TearDown
+  public void TearDown() {
+    session.delete();
+    settings.delete();
+  }
+
+  /**
+   * Loop as written in the sample, creating a new end iterator per pass
+   * and leaving the iterators to the garbage collector.
+   */
+  @Benchmark
+  public void IteratorsEndPerPass(Blackhole bh) {
+    for (CodeObjectsMapIterator it = result.ObjectsBegin();
+         !it.Equals(result.ObjectsEnd()); it.Advance()) {
+      CodeObject code_object = it.GetValue();
+      bh.consume(code_object.GetTypeStr());
+      for (CodeFieldsMapIterator field_it = code_object.FieldsBegin();
+           !field_it.Equals(code_object.FieldsEnd()); field_it.Advance()) {
+        CodeField field = field_it.GetValue();
+        bh.consume(field.Name());
+        bh.consume(field.GetConfidence());
+      }
+      for (StringsMapIterator attr_it = code_object.AttributesBegin();
+           !attr_it.Equals(code_object.AttributesEnd()); attr_it.Advance()) {
+        bh.consume(attr_it.GetKey());
+        bh.consume(attr_it.GetValue());
+      }
+    }
+  }
+
+  @Benchmark
+  public void Ranges(Blackhole bh) {
+    for (CodeObjectsMapIterator it : result.Objects()) {
+      CodeObject code_object = it.GetValue();
+      bh.consume(code_object.GetTypeStr());
+      for (CodeFieldsMapIterator field_it : code_object.Fields()) {
+        CodeField field = field_it.GetValue();
+        bh.consume(field.Name());
+        bh.consume(field.GetConfidence());
+      }
+      for (StringsMapIterator attr_it : code_object.Attributes()) {
+        bh.consume(attr_it.GetKey());
+        bh.consume(attr_it.GetValue());
+      }
+    }
+  }
+
+  @Benchmark
+  public ResultSnapshot Snapshot() {
+    return result.Snapshot();
+  }
+
+}
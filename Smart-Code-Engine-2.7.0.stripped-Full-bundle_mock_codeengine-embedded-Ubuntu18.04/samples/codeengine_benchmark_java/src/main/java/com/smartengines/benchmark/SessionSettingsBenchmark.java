@@ -0,0 +1,62 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.benchmark;
+
+import com.smartengines.code.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of configuring sessions: bursts of SetOption() calls as issued when
+ * a settings object is built per request, and Clone() of a settings object
+ * holding that many extra options.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionSettingsBenchmark {
+
+  @Param({"10", "100"})
+  public int options;
+
+  private CodeEngineSessionSettings settings;
+  private String[] names;
+  private String[] values;
+
+  @Setup
+  public void Setup() {
+    settings = BenchmarkEnvironment.Engine().GetDefaultSessionSettings();
+    names = new String[options];
+    values = new String[options];
+    for (int i = 0; i < options; ++i) {
+      names[i] = "benchmark.option" + i;
+      values[i] = Integer.toString(i);
+    }
+    SetOptionStorm();
+  }
+
+  @TearDown
+  public void TearDown() {
+    settings.delete();
+  }
+
+  @Benchmark
+  public void SetOptionStorm() {
+    for (int i = 0; i < options; ++i)
+      settings.SetOption(names[i], values[i]);
+  }
+
+  @Benchmark
+  public void Clone() {
+    settings.Clone().delete();
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CodeEngineSessionPoolTest {
+
+  private CodeEngine engine;
+  private CodeEngineSessionSettings settings;
+
+  @Before
+  public void Setup() {
+    engine = TestEnvironment.Engine();
+    settings = engine.GetDefaultSessionSettings();
+  }
+
+  @After
+  public void TearDown() {
+    settings.delete();
+  }
+
+  private CodeEngineSessionPool NewPool(int min_idle, int max_total, long idle_timeout_ms) {
+    return new CodeEngineSessionPool(engine, TestEnvironment.Signature(), min_idle, max_total,
+                                     idle_timeout_ms, 5000);
+  }
+
+  @Test(timeout = 10000)
+  public void ReturnedSessionIsBorrowedAgain() throws Exception {
+    CodeEngineSessionPool pool = NewPool(0, 2, 0);
+    try {
+      CodeEngineSession first = pool.Borrow(settings);
+      assertEquals(1, pool.GetBorrowedCount());
+      assertEquals(0, pool.GetIdleCount());
+      pool.Return(first);
+      assertEquals(0, pool.GetBorrowedCount());
+      assertEquals(1, pool.GetIdleCount());
+
+      CodeEngineSession second = pool.Borrow(settings);
+      assertSame(first, second);
+      assertEquals(1, pool.GetTotalCount());
+      pool.Return(second);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void ReturnRejectsForeignSession() throws Exception {
+    CodeEngineSessionPool pool = NewPool(0, 1, 0);
+    CodeEngineSession session = engine.SpawnSession(settings, TestEnvironment.Signature());
+    try {
+      pool.Return(session);
+      fail("Return() accepted a session not borrowed from the pool");
+    } catch (IllegalArgumentException e) {
+      // expected
+    } finally {
+      session.delete();
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void InvalidatedSessionIsDeleted() throws Exception {
+    CodeEngineSessionPool pool = NewPool(0, 1, 0);
+    try {
+      CodeEngineSession first = pool.Borrow(settings);
+      pool.Invalidate(first);
+      assertEquals(0, pool.GetTotalCount());
+      assertEquals(0, pool.GetIdleCount());
+
+      // The slot of the invalidated session is free again
+      CodeEngineSession second = pool.Borrow(settings, 100);
+      assertNotSame(first, second);
+      pool.Return(second);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void BorrowTimesOutWhenPoolIsExhausted() throws Exception {
+    CodeEngineSessionPool pool = NewPool(0, 1, 0);
+    try {
+      CodeEngineSession session = pool.Borrow(settings);
+      long start = System.nanoTime();
+      try {
+        pool.Borrow(settings, 50);
+        fail("Borrow() did not time out");
+      } catch (TimeoutException e) {
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+      }
+      assertEquals(1, pool.GetTotalCount());
+      pool.Return(session);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void ReturnWakesUpWaitingBorrower() throws Exception {
+    final CodeEngineSessionPool pool = NewPool(0, 1, 0);
+    try {
+      CodeEngineSession session = pool.Borrow(settings);
+      final AtomicReference<Object> borrowed = new AtomicReference<Object>();
+      Thread waiter = new Thread(new Runnable() {
+        public void run() {
+          try {
+            borrowed.set(pool.Borrow(settings, 5000));
+          } catch (Exception e) {
+            borrowed.set(e);
+          }
+        }
+      });
+      waiter.start();
+      Thread.sleep(50);
+      assertNull(borrowed.get());
+
+      pool.Return(session);
+      waiter.join();
+      assertSame(session, borrowed.get());
+      pool.Return(session);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void EvictIdleDeletesExpiredSessions() throws Exception {
+    CodeEngineSessionPool pool = NewPool(0, 2, 20);
+    try {
+      CodeEngineSession first = pool.Borrow(settings);
+      CodeEngineSession second = pool.Borrow(settings);
+      pool.Return(first);
+      pool.Return(second);
+      assertEquals(2, pool.GetIdleCount());
+
+      Thread.sleep(50);
+      pool.EvictIdle();
+      assertEquals(0, pool.GetIdleCount());
+      assertEquals(0, pool.GetTotalCount());
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void EvictIdleKeepsMinIdleSessions() throws Exception {
+    CodeEngineSessionPool pool = NewPool(1, 3, 20);
+    try {
+      pool.Prespawn(settings);
+      assertEquals(1, pool.GetIdleCount());
+      CodeEngineSession first = pool.Borrow(settings);
+      CodeEngineSession second = pool.Borrow(settings);
+      pool.Return(first);
+      pool.Return(second);
+      assertEquals(2, pool.GetIdleCount());
+
+      Thread.sleep(50);
+      pool.EvictIdle();
+      assertEquals(1, pool.GetIdleCount());
+      assertEquals(1, pool.GetTotalCount());
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void CloseDeletesSessionsOnReturn() throws Exception {
+    CodeEngineSessionPool pool = NewPool(0, 2, 0);
+    CodeEngineSession session = pool.Borrow(settings);
+    pool.close();
+    assertEquals(1, pool.GetTotalCount());
+    pool.Return(session);
+    assertEquals(0, pool.GetTotalCount());
+    assertEquals(0, pool.GetIdleCount());
+    try {
+      pool.Borrow(settings);
+      fail("Borrow() succeeded on a closed pool");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+}
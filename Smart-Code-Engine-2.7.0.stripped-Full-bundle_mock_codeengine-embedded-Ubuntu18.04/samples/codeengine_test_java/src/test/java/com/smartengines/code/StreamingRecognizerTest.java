@@ -0,0 +1,264 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import static org.junit.Assert.*;
+
+import com.smartengines.common.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingRecognizerTest {
+
+  private CodeEngineSessionSettings settings;
+  private CodeEngineSession session;
+
+  @Before
+  public void Setup() {
+    CodeEngine engine = TestEnvironment.Engine();
+    settings = engine.GetDefaultSessionSettings();
+    session = engine.SpawnSession(settings, TestEnvironment.Signature());
+  }
+
+  @After
+  public void TearDown() {
+    session.delete();
+    settings.delete();
+  }
+
+  /**
+   * View of the test session reporting a terminal result once
+   * {@code terminal_after} frames were processed since the last Reset().
+   * Does not own the native session.
+   */
+  private static class CountingSession extends CodeEngineSession {
+    private final int terminalAfter;
+    private volatile int processed = 0;
+
+    CountingSession(CodeEngineSession session, int terminal_after) {
+      super(CodeEngineSession.getCPtr(session), false);
+      this.terminalAfter = terminal_after;
+    }
+
+    @Override
+    public CodeEngineResult Process(Image image) {
+      CodeEngineResult result = super.Process(image);
+      processed++;
+      return result;
+    }
+
+    @Override
+    public boolean IsResultTerminal() {
+      return terminalAfter > 0 && processed >= terminalAfter;
+    }
+
+    @Override
+    public void Reset() {
+      super.Reset();
+      processed = 0;
+    }
+  }
+
+  private static void AwaitProcessed(StreamingRecognizer recognizer, long count)
+      throws InterruptedException {
+    while (recognizer.GetProcessedFrameCount() < count)
+      Thread.sleep(1);
+  }
+
+  @Test(timeout = 10000)
+  public void PendingFrameIsReplacedByNewerOne() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    StreamingRecognizer recognizer = new StreamingRecognizer(session,
+        new StreamingRecognizer.Listener() {
+          @Override
+          public void ResultReceived(CodeEngineResult result, long latency_ns) {
+            entered.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    try {
+      Image first = TestEnvironment.NewFrame();
+      Image second = TestEnvironment.NewFrame();
+      Image third = TestEnvironment.NewFrame();
+      assertTrue(recognizer.Offer(first));
+      entered.await();
+
+      // The worker is busy with the first frame, so the second one waits
+      // and is then replaced by the third one
+      assertTrue(recognizer.Offer(second));
+      assertTrue(recognizer.Offer(third));
+      assertTrue(TestEnvironment.IsDeleted(second));
+      assertFalse(TestEnvironment.IsDeleted(third));
+      assertEquals(1, recognizer.GetDroppedFrameCount());
+
+      release.countDown();
+      AwaitProcessed(recognizer, 2);
+      assertEquals(2, recognizer.GetProcessedFrameCount());
+      assertEquals(1, recognizer.GetDroppedFrameCount());
+      assertTrue(TestEnvironment.IsDeleted(first));
+    } finally {
+      release.countDown();
+      recognizer.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void FinishedStreamRefusesFramesUntilRestart() throws Exception {
+    final AtomicInteger ended = new AtomicInteger();
+    StreamingRecognizer recognizer = new StreamingRecognizer(new CountingSession(session, 2),
+        new StreamingRecognizer.Listener() {
+          @Override
+          public void StreamEnded(CodeEngineResult result) {
+            ended.incrementAndGet();
+          }
+        });
+    try {
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      AwaitProcessed(recognizer, 1);
+      assertFalse(recognizer.IsFinished());
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      assertTrue(recognizer.AwaitFinished(5000));
+      // The stream is finished before the listener hears of it
+      while (ended.get() < 1)
+        Thread.sleep(1);
+
+      Image refused = TestEnvironment.NewFrame();
+      assertFalse(recognizer.Offer(refused));
+      assertTrue(TestEnvironment.IsDeleted(refused));
+
+      recognizer.Restart();
+      assertFalse(recognizer.IsFinished());
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      AwaitProcessed(recognizer, 3);
+      assertFalse(recognizer.IsFinished());
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      assertTrue(recognizer.AwaitFinished(5000));
+      while (ended.get() < 2)
+        Thread.sleep(1);
+    } finally {
+      recognizer.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void RestartDropsPendingFrame() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    StreamingRecognizer recognizer = new StreamingRecognizer(session,
+        new StreamingRecognizer.Listener() {
+          @Override
+          public void ResultReceived(CodeEngineResult result, long latency_ns) {
+            entered.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    try {
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      entered.await();
+      Image pending = TestEnvironment.NewFrame();
+      assertTrue(recognizer.Offer(pending));
+
+      // Restart() takes the pending frame right away, then waits for the
+      // frame being processed, which is released a while later
+      Thread releaser = new Thread(new Runnable() {
+        public void run() {
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          release.countDown();
+        }
+      });
+      releaser.start();
+      recognizer.Restart();
+      releaser.join();
+
+      assertTrue(TestEnvironment.IsDeleted(pending));
+      assertEquals(1, recognizer.GetProcessedFrameCount());
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      AwaitProcessed(recognizer, 2);
+    } finally {
+      release.countDown();
+      recognizer.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void FailingListenerDoesNotStallStream() throws Exception {
+    final AtomicInteger failures = new AtomicInteger();
+    CodeEngineSession failing = new CountingSession(session, 0) {
+      @Override
+      public CodeEngineResult Process(Image image) {
+        throw new IllegalStateException("Processing failed");
+      }
+    };
+    StreamingRecognizer recognizer = new StreamingRecognizer(failing,
+        new StreamingRecognizer.Listener() {
+          @Override
+          public void ProcessingFailed(Exception error) {
+            failures.incrementAndGet();
+            throw new RuntimeException("Listener failed");
+          }
+        });
+    try {
+      for (int i = 1; i <= 3; ++i) {
+        Image frame = TestEnvironment.NewFrame();
+        assertTrue(recognizer.Offer(frame));
+        while (failures.get() < i)
+          Thread.sleep(1);
+        while (!TestEnvironment.IsDeleted(frame))
+          Thread.sleep(1);
+      }
+    } finally {
+      recognizer.close();
+    }
+
+    final AtomicInteger received = new AtomicInteger();
+    final AtomicInteger ended = new AtomicInteger();
+    recognizer = new StreamingRecognizer(new CountingSession(session, 2),
+        new StreamingRecognizer.Listener() {
+          @Override
+          public void ResultReceived(CodeEngineResult result, long latency_ns) {
+            received.incrementAndGet();
+            throw new RuntimeException("Listener failed");
+          }
+
+          @Override
+          public void StreamEnded(CodeEngineResult result) {
+            ended.incrementAndGet();
+            throw new RuntimeException("Listener failed");
+          }
+        });
+    try {
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      AwaitProcessed(recognizer, 1);
+      assertTrue(recognizer.Offer(TestEnvironment.NewFrame()));
+      assertTrue(recognizer.AwaitFinished(5000));
+      // StreamEnded() follows the failed ResultReceived() of the last frame
+      while (ended.get() == 0)
+        Thread.sleep(1);
+      assertEquals(2, received.get());
+    } finally {
+      recognizer.close();
+    }
+  }
+
+}
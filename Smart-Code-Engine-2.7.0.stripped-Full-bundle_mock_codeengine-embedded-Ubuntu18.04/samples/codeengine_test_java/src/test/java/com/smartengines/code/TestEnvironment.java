@@ -0,0 +1,52 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+/**
+ * Shared setup of the tests: the native library, the engine and input
+ * frames. Configured with system properties:
+ *
+ *   codeengine.signature - personalized signature (see doc/README.html)
+ */
+final class TestEnvironment {
+
+  static {
+    System.loadLibrary("jnicodeengine");
+  }
+
+  private static CodeEngine engine;
+
+  private TestEnvironment() {
+  }
+
+  static String Signature() {
+    return System.getProperty("codeengine.signature", "");
+  }
+
+  /**
+   * Engine shared by all tests. Never deleted, the JVM exits right after
+   * the tests.
+   */
+  static synchronized CodeEngine Engine() {
+    if (engine == null)
+      engine = CodeEngine.CreateFromEmbeddedBundle(true);
+    return engine;
+  }
+
+  /**
+   * Blank 64x64 RGB frame.
+   */
+  static Image NewFrame() {
+    return Image.FromBuffer(new byte[64 * 64 * 3], 64, 64, 64 * 3, 3);
+  }
+
+  static boolean IsDeleted(Image image) {
+    return Image.getCPtr(image) == 0;
+  }
+
+}
@@ -0,0 +1,440 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recognizes a batch of independent images with one call, spreading them
+ * over worker threads.
+ *
+ * <p>Each worker borrows one session from a {@link CodeEngineSessionPool}
+ * for the whole batch and takes the next image as soon as it is done with
+ * the previous one, calling {@link CodeEngineSession#Reset()} in between,
+ * so the images of a batch never share a session state and the pool is
+ * touched once per worker rather than once per image. Files are decoded
+ * by the worker processing them, right before recognition, so no more than
+ * {@code num_threads} decoded images are held at a time. Decoding is done
+ * by {@link Image#FromFile(String)}, which reads the file and allocates the
+ * image on the native side; no Java buffer is involved that could be reused
+ * between files.
+ *
+ * <pre>
+ * BatchRecognizer.BatchResult batch = recognizer.ProcessFiles(filenames, profile);
+ * for (int i = 0; i &lt; batch.GetCount(); ++i) {
+ *   ResultSnapshot result = batch.GetResult(i);
+ *   // ...
+ * }
+ * </pre>
+ */
+public class BatchRecognizer implements AutoCloseable {
+
+  /**
+   * Order in which results are delivered to the listener and listed in
+   * the {@link BatchResult}.
+   */
+  public enum Order {
+    /** The order of the input images */
+    Input,
+    /** The order in which the images were processed */
+    Completion
+  }
+
+  /**
+   * Receives the results as they become available, in the requested
+   * order. Calls are serialized but may come from different threads.
+   */
+  public static class ResultListener {
+    public void ItemProcessed(int input_index, ResultSnapshot result) {
+    }
+
+    public void ItemFailed(int input_index, Exception error) {
+    }
+  }
+
+  /**
+   * Results of a batch, in the requested order.
+   */
+  public static final class BatchResult {
+    private final int[] inputIndex;
+    private final ResultSnapshot[] results;
+    private final Exception[] errors;
+    private final long elapsedNanos;
+
+    BatchResult(int[] input_index, ResultSnapshot[] results, Exception[] errors,
+                long elapsed_nanos) {
+      this.inputIndex = input_index;
+      this.results = results;
+      this.errors = errors;
+      this.elapsedNanos = elapsed_nanos;
+    }
+
+    public int GetCount() {
+      return results.length;
+    }
+
+    /**
+     * Position of the {@code i}-th result in the input.
+     */
+    public int GetInputIndex(int i) {
+      return inputIndex[i];
+    }
+
+    /**
+     * The {@code i}-th result, or null if its image failed.
+     */
+    public ResultSnapshot GetResult(int i) {
+      return results[i];
+    }
+
+    /**
+     * Failure of the {@code i}-th image, or null if it was processed.
+     */
+    public Exception GetError(int i) {
+      return errors[i];
+    }
+
+    public int GetFailedCount() {
+      int count = 0;
+      for (Exception error : errors) {
+        if (error != null)
+          count++;
+      }
+      return count;
+    }
+
+    /**
+     * Wall-clock time of the batch.
+     */
+    public long GetElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    public double GetImagesPerSecond() {
+      return elapsedNanos == 0 ? 0 : results.length * 1e9 / elapsedNanos;
+    }
+  }
+
+  private final CodeEngineSessionPool pool;
+  private final boolean ownsPool;
+  private final int numThreads;
+  private final ExecutorService workers;
+
+  private final AtomicLong processedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  // Union of the intervals during which at least one batch was running,
+  // so that concurrent batches are not counted twice
+  private final Object busyLock = new Object();
+  private int runningBatches = 0;
+  private long busySince = 0;
+  private long busyNanos = 0;
+
+  /**
+   * Creates a recognizer over an existing pool, which is not closed with
+   * the recognizer. The pool should allow at least {@code num_threads}
+   * sessions.
+   */
+  public BatchRecognizer(CodeEngineSessionPool pool, int num_threads) {
+    this(pool, false, num_threads);
+  }
+
+  /**
+   * Creates a recognizer with one worker and one pooled session per
+   * available processor.
+   */
+  public BatchRecognizer(CodeEngine engine, String signature) {
+    this(engine, signature, Runtime.getRuntime().availableProcessors());
+  }
+
+  public BatchRecognizer(CodeEngine engine, String signature, int num_threads) {
+    this(new CodeEngineSessionPool(engine, signature, Math.max(num_threads, 1)), true,
+         num_threads);
+  }
+
+  private BatchRecognizer(CodeEngineSessionPool pool, boolean owns_pool, int num_threads) {
+    if (pool == null)
+      throw new IllegalArgumentException("pool is null");
+    if (num_threads <= 0)
+      throw new IllegalArgumentException("num_threads must be positive");
+    this.pool = pool;
+    this.ownsPool = owns_pool;
+    this.numThreads = num_threads;
+    this.workers = Executors.newFixedThreadPool(num_threads, DaemonThreads("BatchRecognizer-worker"));
+  }
+
+  /**
+   * Recognizes {@code images} with sessions spawned with {@code profile}
+   * and blocks until every image has been processed or has failed. A
+   * failed image does not stop the others. The images are not deleted.
+   *
+   * @param listener receives the results in {@code order}, may be null
+   */
+  public BatchResult ProcessAll(List<Image> images, SettingsProfile profile, Order order,
+                                ResultListener listener) throws InterruptedException {
+    for (Image image : images) {
+      if (image == null)
+        throw new IllegalArgumentException("images must not contain null");
+    }
+    return Run(new Batch(images.iterator(), false, profile, order, listener), images.size());
+  }
+
+  public BatchResult ProcessAll(List<Image> images, SettingsProfile profile)
+      throws InterruptedException {
+    return ProcessAll(images, profile, Order.Input, null);
+  }
+
+  /**
+   * Decodes and recognizes the image files listed by {@code filenames},
+   * which is iterated lazily, so it may list more files than fit in memory.
+   * Only the first page of each file is processed.
+   */
+  public BatchResult ProcessFiles(Iterable<String> filenames, SettingsProfile profile,
+                                  Order order, ResultListener listener)
+      throws InterruptedException {
+    return Run(new Batch(filenames.iterator(), true, profile, order, listener), numThreads);
+  }
+
+  public BatchResult ProcessFiles(Iterable<String> filenames, SettingsProfile profile)
+      throws InterruptedException {
+    return ProcessFiles(filenames, profile, Order.Input, null);
+  }
+
+  /**
+   * Number of images processed by all batches so far, failed ones
+   * excluded.
+   */
+  public long GetProcessedCount() {
+    return processedCount.get();
+  }
+
+  public long GetFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * Images processed per second during which at least one batch was
+   * running, over all batches so far. Concurrent batches share their
+   * wall-clock time.
+   */
+  public double GetThroughput() {
+    long busy;
+    synchronized (busyLock) {
+      busy = busyNanos;
+      if (runningBatches > 0)
+        busy += System.nanoTime() - busySince;
+    }
+    return busy == 0 ? 0 : (processedCount.get() + failedCount.get()) * 1e9 / busy;
+  }
+
+  /**
+   * Shuts the worker threads down. Closes the pool if it was created by
+   * the recognizer.
+   */
+  public void close() {
+    workers.shutdown();
+    if (ownsPool)
+      pool.close();
+  }
+
+  private BatchResult Run(Batch batch, int size_hint) throws InterruptedException {
+    if (batch.profile == null || batch.order == null)
+      throw new IllegalArgumentException("profile and order must not be null");
+    int count = Math.max(Math.min(numThreads, size_hint), 1);
+    long start = System.nanoTime();
+    synchronized (busyLock) {
+      if (runningBatches++ == 0)
+        busySince = start;
+    }
+    long elapsed;
+    try {
+      CountDownLatch done = new CountDownLatch(count);
+      for (int i = 0; i < count; ++i)
+        workers.execute(new Worker(batch, done));
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        batch.cancelled = true;
+        throw e;
+      }
+    } finally {
+      long end = System.nanoTime();
+      elapsed = end - start;
+      synchronized (busyLock) {
+        if (--runningBatches == 0)
+          busyNanos += end - busySince;
+      }
+    }
+    return batch.Result(elapsed);
+  }
+
+  private static ThreadFactory DaemonThreads(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  // State of one ProcessAll() or ProcessFiles() call, also used by
+  // FileRecognitionPipeline
+  static final class Batch {
+    final Iterator<?> input;
+    final boolean decode;
+    final SettingsProfile profile;
+    final Order order;
+    final ResultListener listener;
+    volatile boolean cancelled = false;
+
+    // Guarded by this
+    private int nextIndex = 0;
+    private final ArrayList<ResultSnapshot> results = new ArrayList<ResultSnapshot>();
+    private final ArrayList<Exception> errors = new ArrayList<Exception>();
+    private final ArrayList<Boolean> completed = new ArrayList<Boolean>();
+    private final ArrayList<Integer> completionOrder = new ArrayList<Integer>();
+    // Next input index to be delivered in input order
+    private int delivered = 0;
+
+    Batch(Iterator<?> input, boolean decode, SettingsProfile profile, Order order,
+          ResultListener listener) {
+      this.input = input;
+      this.decode = decode;
+      this.profile = profile;
+      this.order = order;
+      this.listener = listener != null ? listener : new ResultListener();
+    }
+
+    // Hands out the next item, or null once the input is exhausted.
+    // Failures of the input iterator are reported as failed items.
+    synchronized Item Next() {
+      if (cancelled || !input.hasNext())
+        return null;
+      int index = nextIndex++;
+      results.add(null);
+      errors.add(null);
+      completed.add(false);
+      try {
+        return new Item(index, input.next());
+      } catch (RuntimeException e) {
+        Complete(index, null, e);
+        return Next();
+      }
+    }
+
+    synchronized void Complete(int index, ResultSnapshot result, Exception error) {
+      results.set(index, result);
+      errors.set(index, error);
+      completed.set(index, true);
+      completionOrder.add(index);
+      if (order == Order.Completion) {
+        Deliver(index);
+        return;
+      }
+      while (delivered < completed.size() && completed.get(delivered))
+        Deliver(delivered++);
+    }
+
+    synchronized BatchResult Result(long elapsed_nanos) {
+      int size = completionOrder.size();
+      int[] input_index = new int[size];
+      ResultSnapshot[] ordered_results = new ResultSnapshot[size];
+      Exception[] ordered_errors = new Exception[size];
+      for (int i = 0; i < size; ++i) {
+        int index = order == Order.Input ? i : completionOrder.get(i);
+        input_index[i] = index;
+        ordered_results[i] = results.get(index);
+        ordered_errors[i] = errors.get(index);
+      }
+      return new BatchResult(input_index, ordered_results, ordered_errors, elapsed_nanos);
+    }
+
+    private void Deliver(int index) {
+      try {
+        if (errors.get(index) == null)
+          listener.ItemProcessed(index, results.get(index));
+        else
+          listener.ItemFailed(index, errors.get(index));
+      } catch (RuntimeException e) {
+        // A failing listener must not stall the batch
+      }
+    }
+  }
+
+  static final class Item {
+    final int index;
+    final Object source;
+
+    Item(int index, Object source) {
+      this.index = index;
+      this.source = source;
+    }
+  }
+
+  private final class Worker implements Runnable {
+    private final Batch batch;
+    private final CountDownLatch done;
+
+    Worker(Batch batch, CountDownLatch done) {
+      this.batch = batch;
+      this.done = done;
+    }
+
+    public void run() {
+      CodeEngineSession session = null;
+      try {
+        Item item;
+        while ((item = batch.Next()) != null) {
+          ResultSnapshot result = null;
+          Exception error = null;
+          Image image = null;
+          try {
+            image = batch.decode ? Image.FromFile((String) item.source) : (Image) item.source;
+            boolean fresh = session == null;
+            if (fresh)
+              session = pool.Borrow(batch.profile);
+            try {
+              if (!fresh)
+                session.Reset();
+              result = pool.Process(session, image);
+            } catch (Exception e) {
+              // The session may be left in any state
+              CodeEngineSession failed = session;
+              session = null;
+              pool.Invalidate(failed);
+              throw e;
+            }
+          } catch (Exception e) {
+            error = e;
+          } finally {
+            if (batch.decode && image != null)
+              image.delete();
+          }
+          (error == null ? processedCount : failedCount).incrementAndGet();
+          batch.Complete(item.index, result, error);
+        }
+      } finally {
+        if (session != null)
+          pool.Return(session);
+        done.countDown();
+      }
+    }
+  }
+
+}
@@ -10,12 +10,29 @@ package com.smartengines.code;
 
 import com.smartengines.common.*;
 
-public class CodeEngine {
-  private transient long swigCPtr;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class CodeEngine implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<CodeEngine> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(CodeEngine.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnicodeengineJNI.delete_CodeEngine(cPtr);
+    }
+  };
 
   public CodeEngine(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -35,21 +52,25 @@ public class CodeEngine {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnicodeengineJNI.delete_CodeEngine(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public static CodeEngine Create(String config_path, boolean lazy_configuration) {
     long cPtr = jnicodeengineJNI.CodeEngine_Create__SWIG_0(config_path, lazy_configuration);
     return (cPtr == 0) ? null : new CodeEngine(cPtr, true);
@@ -70,6 +91,33 @@ public class CodeEngine {
     return (cPtr == 0) ? null : new CodeEngine(cPtr, true);
   }
 
+  /**
+   * Creates an engine from a configuration bundle held in a buffer. This
+   * overload is a convenience, not an optimization: the native side takes
+   * a Java array, so unless the buffer wraps a whole heap array, its
+   * remaining bytes are copied into a new one first, including for direct
+   * and memory-mapped buffers. Bundles stored in files are best passed to
+   * {@link #Create(String, boolean)}, which reads them on the native side.
+   * The buffer position is not changed.
+   */
+  public static CodeEngine Create(ByteBuffer config_data, boolean lazy_configuration) {
+    return Create(BufferToArray(config_data), lazy_configuration);
+  }
+
+  public static CodeEngine Create(ByteBuffer config_data) {
+    return Create(BufferToArray(config_data));
+  }
+
+  // Same policy as the ByteBuffer overloads of Image
+  private static byte[] BufferToArray(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+        buffer.array().length == buffer.remaining())
+      return buffer.array();
+    byte[] array = new byte[buffer.remaining()];
+    buffer.duplicate().get(array);
+    return array;
+  }
+
   public static CodeEngine CreateFromEmbeddedBundle(boolean lazy_configuration) {
     long cPtr = jnicodeengineJNI.CodeEngine_CreateFromEmbeddedBundle__SWIG_0(lazy_configuration);
     return (cPtr == 0) ? null : new CodeEngine(cPtr, true);
@@ -108,4 +156,20 @@ public class CodeEngine {
     return jnicodeengineJNI.CodeEngine_IsEngineAvailable(swigCPtr, this, engine_type.swigValue());
   }
 
+  /**
+   * Initializes the internal engines of {@code engine_types} on a background
+   * thread, see {@link EngineWarmUp}.
+   */
+  public EngineWarmUp WarmUp(Set<CodeEngineType> engine_types, String signature) {
+    return EngineWarmUp.Start(this, signature, engine_types);
+  }
+
+  /**
+   * Starts initializing the internal engines of {@code profiles}, each
+   * with the options of its profile, on a background thread.
+   */
+  public EngineWarmUp WarmUp(Map<CodeEngineType, SettingsProfile> profiles, String signature) {
+    return EngineWarmUp.Start(this, signature, profiles);
+  }
+
 }
@@ -0,0 +1,377 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs recognition calls on a fixed set of worker threads, with sessions
+ * borrowed from a {@link CodeEngineSessionPool}.
+ *
+ * <p>{@link #Submit(Image, CodeEngineSessionSettings, long)} returns
+ * immediately with a {@link RecognitionFuture}. At most
+ * {@code num_threads + queue_capacity} calls are accepted at a time; when
+ * that limit is reached further calls are either failed right away or wait
+ * for a free slot, depending on the {@link QueuePolicy}. A call whose
+ * deadline expires before it has started is failed with a
+ * {@link TimeoutException} without touching a session.
+ *
+ * <p>With {@link #Submit(Image, CodeEngineSessionSettings, Deadline)} the
+ * deadline also bounds the recognition itself: the call runs on a session
+ * whose timeout fits the time left and completes with the result found by
+ * the deadline, as described for {@link CodeEngineSessionPool}.
+ *
+ * <p>The settings may also be given as a {@link SettingsProfile}, whose
+ * fingerprint is computed once rather than on every call.
+ *
+ * <p>The image and the settings passed to Submit() must not be deleted
+ * until the returned future is done.
+ */
+public class CodeEngineAsyncRecognizer implements AutoCloseable {
+
+  /**
+   * Behavior of Submit() when the queue is full.
+   */
+  public enum QueuePolicy {
+    /** Fail the call with a RejectedExecutionException */
+    Reject,
+    /** Block the caller until a slot is free or the deadline expires */
+    Wait
+  }
+
+  private final CodeEngineSessionPool pool;
+  private final boolean ownsPool;
+  private final QueuePolicy policy;
+  private final int capacity;
+  private final Semaphore slots;
+  private final ThreadPoolExecutor workers;
+  private final ScheduledThreadPoolExecutor timer;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a recognizer over an existing pool, which is not closed with
+   * the recognizer. The pool should allow at least {@code num_threads}
+   * sessions.
+   *
+   * @param pool           pool to borrow sessions from
+   * @param num_threads    number of concurrent recognition calls
+   * @param queue_capacity number of accepted calls waiting for a worker
+   * @param policy         behavior of Submit() when the queue is full
+   */
+  public CodeEngineAsyncRecognizer(CodeEngineSessionPool pool, int num_threads,
+                                   int queue_capacity, QueuePolicy policy) {
+    this(pool, false, num_threads, queue_capacity, policy);
+  }
+
+  /**
+   * Creates a recognizer with its own pool of {@code num_threads} sessions
+   * spawned from {@code engine}.
+   */
+  public CodeEngineAsyncRecognizer(CodeEngine engine, String signature, int num_threads,
+                                   int queue_capacity, QueuePolicy policy) {
+    this(new CodeEngineSessionPool(engine, signature, Math.max(num_threads, 1)), true,
+         num_threads, queue_capacity, policy);
+  }
+
+  private CodeEngineAsyncRecognizer(CodeEngineSessionPool pool, boolean owns_pool,
+                                    int num_threads, int queue_capacity, QueuePolicy policy) {
+    if (pool == null)
+      throw new IllegalArgumentException("pool is null");
+    if (num_threads <= 0 || queue_capacity < 0)
+      throw new IllegalArgumentException("Invalid recognizer bounds: num_threads=" + num_threads +
+                                         ", queue_capacity=" + queue_capacity);
+    if (policy == null)
+      throw new IllegalArgumentException("policy is null");
+
+    this.pool = pool;
+    this.ownsPool = owns_pool;
+    this.policy = policy;
+    this.capacity = num_threads + queue_capacity;
+    this.slots = new Semaphore(capacity);
+    this.workers = new ThreadPoolExecutor(num_threads, num_threads, 0, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          DaemonThreads("CodeEngineAsyncRecognizer-worker"));
+    this.timer = new ScheduledThreadPoolExecutor(1, DaemonThreads("CodeEngineAsyncRecognizer-timer"));
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Submits {@code image} for recognition with a session spawned with
+   * {@code settings}.
+   *
+   * @param timeout_ms time from now within which the recognition must
+   *                   start, including waiting for a slot and a session;
+   *                   0 means no deadline
+   */
+  public RecognitionFuture Submit(Image image, CodeEngineSessionSettings settings,
+                                  long timeout_ms) {
+    if (image == null || settings == null)
+      throw new IllegalArgumentException("image and settings must not be null");
+    if (timeout_ms < 0)
+      throw new IllegalArgumentException("timeout_ms must be non-negative");
+
+    return Submit(new Call(image, settings, null, StartDeadline(timeout_ms), null));
+  }
+
+  public RecognitionFuture Submit(Image image, CodeEngineSessionSettings settings) {
+    return Submit(image, settings, 0);
+  }
+
+  /**
+   * Submits {@code image} for recognition with a session spawned with the
+   * settings compiled from {@code profile}.
+   *
+   * @param timeout_ms time from now within which the recognition must
+   *                   start; 0 means no deadline
+   */
+  public RecognitionFuture Submit(Image image, SettingsProfile profile, long timeout_ms) {
+    if (image == null || profile == null)
+      throw new IllegalArgumentException("image and profile must not be null");
+    if (timeout_ms < 0)
+      throw new IllegalArgumentException("timeout_ms must be non-negative");
+    return Submit(new Call(image, null, profile, StartDeadline(timeout_ms), null));
+  }
+
+  public RecognitionFuture Submit(Image image, SettingsProfile profile) {
+    return Submit(image, profile, 0);
+  }
+
+  /**
+   * Submits {@code image} for recognition with a session spawned with
+   * {@code settings}, to be completed by {@code deadline}. The call is
+   * failed with a {@link TimeoutException} if the deadline expires before
+   * it has started; if it expires during recognition, the result found so
+   * far is returned. Misses are counted in the deadline statistics of the
+   * pool.
+   */
+  public RecognitionFuture Submit(Image image, CodeEngineSessionSettings settings,
+                                  Deadline deadline) {
+    if (image == null || settings == null || deadline == null)
+      throw new IllegalArgumentException("image, settings and deadline must not be null");
+    return Submit(new Call(image, settings, null, deadline.GetNanoTime(), deadline));
+  }
+
+  public RecognitionFuture Submit(Image image, SettingsProfile profile, Deadline deadline) {
+    if (image == null || profile == null || deadline == null)
+      throw new IllegalArgumentException("image, profile and deadline must not be null");
+    return Submit(new Call(image, null, profile, deadline.GetNanoTime(), deadline));
+  }
+
+  private static long StartDeadline(long timeout_ms) {
+    return timeout_ms == 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+  }
+
+  private RecognitionFuture Submit(Call call) {
+    long deadline = call.deadline;
+    if (closed) {
+      call.Fail(new RejectedExecutionException("Recognizer is closed"));
+      return call;
+    }
+    if (!AcquireSlot(call))
+      return call;
+    call.holdsSlot = true;
+
+    if (deadline != 0) {
+      call.expiry = timer.schedule(new Expiry(call), deadline - System.nanoTime(),
+                                   TimeUnit.NANOSECONDS);
+    }
+    try {
+      workers.execute(call);
+    } catch (RejectedExecutionException e) {
+      call.Fail(e);
+    }
+    return call;
+  }
+
+  /**
+   * Returns the number of accepted calls which are queued or running.
+   */
+  public int GetPendingCount() {
+    return capacity - slots.availablePermits();
+  }
+
+  /**
+   * Stops accepting calls, cancels the queued ones and waits for the
+   * running ones to complete. Closes the pool if it was created by the
+   * recognizer.
+   */
+  public void close() {
+    if (closed)
+      return;
+    closed = true;
+    workers.shutdown();
+    List<Runnable> queued = new ArrayList<Runnable>();
+    workers.getQueue().drainTo(queued);
+    for (Runnable call : queued)
+      ((Call) call).cancel(false);
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (workers.awaitTermination(1, TimeUnit.SECONDS))
+          break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    timer.shutdownNow();
+    if (ownsPool)
+      pool.close();
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  // Returns false if the call has been failed instead
+  private boolean AcquireSlot(Call call) {
+    if (slots.tryAcquire())
+      return true;
+    if (policy == QueuePolicy.Reject) {
+      call.Fail(new RejectedExecutionException("Recognition queue is full"));
+      return false;
+    }
+    try {
+      if (call.deadline == 0) {
+        slots.acquire();
+        return true;
+      }
+      long remaining = call.deadline - System.nanoTime();
+      if (remaining > 0 && slots.tryAcquire(remaining, TimeUnit.NANOSECONDS))
+        return true;
+      Shed(call, new TimeoutException("Deadline expired while waiting for a queue slot"));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      call.Fail(e);
+    }
+    return false;
+  }
+
+  // Fails a call whose deadline expired before it started
+  private void Shed(Call call, TimeoutException error) {
+    if (call.Fail(error) && call.completionDeadline != null) {
+      if (call.profile != null)
+        pool.Shed(call.profile);
+      else
+        pool.Shed(call.settings);
+    }
+  }
+
+  private ResultSnapshot Recognize(Call call) throws Exception {
+    if (call.completionDeadline != null) {
+      return call.profile != null
+          ? pool.Process(call.image, call.profile, call.completionDeadline)
+          : pool.Process(call.image, call.settings, call.completionDeadline);
+    }
+    long timeout_ms = 0;
+    if (call.deadline != 0) {
+      long remaining = call.deadline - System.nanoTime();
+      if (remaining <= 0)
+        throw new TimeoutException("Deadline expired before recognition started");
+      timeout_ms = Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1);
+    }
+    CodeEngineSession session;
+    if (call.profile != null)
+      session = timeout_ms == 0 ? pool.Borrow(call.profile) : pool.Borrow(call.profile, timeout_ms);
+    else
+      session = timeout_ms == 0 ? pool.Borrow(call.settings) : pool.Borrow(call.settings, timeout_ms);
+    boolean ok = false;
+    try {
+      ResultSnapshot result = pool.Process(session, call.image);
+      ok = true;
+      return result;
+    } finally {
+      if (ok)
+        pool.Return(session);
+      else
+        pool.Invalidate(session);
+    }
+  }
+
+  private static ThreadFactory DaemonThreads(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  private final class Call extends RecognitionFuture {
+    final Image image;
+    // Exactly one of settings and profile is set
+    final CodeEngineSessionSettings settings;
+    final SettingsProfile profile;
+    final long deadline;
+    // Deadline of the whole call, or null if only its start is bounded
+    final Deadline completionDeadline;
+    volatile boolean holdsSlot = false;
+    volatile ScheduledFuture<?> expiry;
+
+    Call(Image image, CodeEngineSessionSettings settings, SettingsProfile profile, long deadline,
+         Deadline completion_deadline) {
+      this(new Task(), image, settings, profile, deadline, completion_deadline);
+    }
+
+    private Call(Task task, Image image, CodeEngineSessionSettings settings,
+                 SettingsProfile profile, long deadline, Deadline completion_deadline) {
+      super(task);
+      task.call = this;
+      this.image = image;
+      this.settings = settings;
+      this.profile = profile;
+      this.deadline = deadline;
+      this.completionDeadline = completion_deadline;
+    }
+
+    @Override
+    protected void done() {
+      ScheduledFuture<?> pending = expiry;
+      if (pending != null)
+        pending.cancel(false);
+      if (holdsSlot)
+        slots.release();
+      super.done();
+    }
+  }
+
+  private final class Task implements Callable<ResultSnapshot> {
+    Call call;
+
+    public ResultSnapshot call() throws Exception {
+      return Recognize(call);
+    }
+  }
+
+  // Fails a call which has not started by its deadline
+  private final class Expiry implements Runnable {
+    private final Call call;
+
+    Expiry(Call call) {
+      this.call = call;
+    }
+
+    public void run() {
+      Shed(call, new TimeoutException("Deadline expired before recognition started"));
+    }
+  }
+
+}
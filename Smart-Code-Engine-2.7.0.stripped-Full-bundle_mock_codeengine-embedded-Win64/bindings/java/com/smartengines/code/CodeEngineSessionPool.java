@@ -0,0 +1,1021 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of recognition sessions spawned from a single {@link CodeEngine}.
+ *
+ * <p>Sessions are grouped by the {@link SettingsFingerprint} of the session
+ * settings, so a session is only handed out to callers requesting exactly
+ * the options it was spawned with. Returned sessions are recycled with
+ * {@link CodeEngineSession#Reset()}. Sessions spawned from one engine are
+ * independent, so borrowed sessions may be used from different threads in
+ * parallel.
+ *
+ * <p>The pool never holds more than {@code max_total} sessions in total. At
+ * least {@code min_idle} idle sessions are kept per settings fingerprint once
+ * {@link #Prespawn(CodeEngineSessionSettings)} was called for it; idle sessions
+ * above that are deleted after {@code idle_timeout_ms}.
+ *
+ * <p>Calls with a {@link Deadline} are given sessions spawned with a
+ * global.sessionTimeout fitting the time left, so that recognition gives
+ * up and returns what it has found by then instead of overrunning the
+ * deadline. As the timeout is fixed when a session is spawned, the time
+ * left is rounded to a step of a series with ten steps per decade (1 ms,
+ * 1.25 ms, 1.5 ms, 2 ms, 2.5 ms, 3 ms, 4 ms, 5 ms, 6 ms, 8 ms, 10 ms, ...)
+ * and the sessions of each step are pooled separately. A step exceeding
+ * the time left by at most 1% is taken, so that a deadline of 500 ms gets
+ * the 0.5 s step although a little time has passed since it was set.
+ * Calls whose deadline has expired before they get a session are not
+ * processed at all. Misses are counted in {@link #GetDeadlineStats()}.
+ *
+ * <p>Optionally a {@link MultiThreadingController} decides, with the
+ * load on the pool, whether sessions are spawned with
+ * global.enableMultiThreading on or off; see
+ * {@link #EnableAdaptiveMultiThreading(int, int, long)}.
+ */
+public class CodeEngineSessionPool implements AutoCloseable {
+
+  private static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+  private static final long DEFAULT_BORROW_TIMEOUT_MS = 30000;
+  // Session timeouts in microseconds sessions for calls with a deadline
+  // are spawned with, from 1 ms to 800 s
+  private static final long[] SESSION_TIMEOUT_STEPS = TimeoutSteps(1000, 6);
+  // Fraction of the time left a session timeout step may exceed it by
+  private static final double SESSION_TIMEOUT_SLACK = 0.01;
+
+  private final CodeEngine engine;
+  private final String signature;
+  private final int minIdle;
+  private final int maxTotal;
+  private final long idleTimeoutNanos;
+  private final long borrowTimeoutNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final Map<SettingsFingerprint, Partition> partitions =
+      new HashMap<SettingsFingerprint, Partition>();
+  private final Map<CodeEngineSession, BorrowedSession> borrowed =
+      new IdentityHashMap<CodeEngineSession, BorrowedSession>();
+  private final ScheduledExecutorService evictor;
+  // Fingerprints of settings with global options overridden, such as the
+  // session timeout of a deadline, guarded by lock
+  private final Map<VariantKey, SettingsFingerprint> variants =
+      new HashMap<VariantKey, SettingsFingerprint>();
+  private final DeadlineStats deadlineStats = new DeadlineStats();
+  private volatile MultiThreadingController multiThreadingController;
+  // Value of global.enableMultiThreading in the default settings of the
+  // engine, "" if there is none, read on first use
+  private volatile String defaultMultiThreading;
+
+  // Number of sessions alive or being spawned, guarded by lock
+  private int total = 0;
+  // Number of callers waiting for a session, guarded by lock
+  private int waiting = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates a pool of sessions spawned from {@code engine}.
+   *
+   * @param engine            engine to spawn sessions with, must outlive the pool
+   * @param signature         personalized signature passed to SpawnSession
+   * @param min_idle          idle sessions kept per settings fingerprint
+   * @param max_total         upper bound on the number of sessions in the pool
+   * @param idle_timeout_ms   idle time after which extra sessions are deleted,
+   *                          0 disables eviction
+   * @param borrow_timeout_ms maximum time Borrow() waits for a free session
+   */
+  public CodeEngineSessionPool(CodeEngine engine, String signature, int min_idle,
+                               int max_total, long idle_timeout_ms,
+                               long borrow_timeout_ms) {
+    if (engine == null)
+      throw new IllegalArgumentException("engine is null");
+    if (max_total <= 0 || min_idle < 0 || min_idle > max_total)
+      throw new IllegalArgumentException("Invalid pool bounds: min_idle=" + min_idle +
+                                         ", max_total=" + max_total);
+    if (idle_timeout_ms < 0 || borrow_timeout_ms < 0)
+      throw new IllegalArgumentException("Timeouts must be non-negative");
+
+    this.engine = engine;
+    this.signature = signature;
+    this.minIdle = min_idle;
+    this.maxTotal = max_total;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idle_timeout_ms);
+    this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrow_timeout_ms);
+
+    if (idle_timeout_ms > 0) {
+      evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "CodeEngineSessionPool-evictor");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      long period = Math.max(idle_timeout_ms / 2, 1);
+      evictor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          EvictIdle();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    } else {
+      evictor = null;
+    }
+  }
+
+  public CodeEngineSessionPool(CodeEngine engine, String signature, int max_total) {
+    this(engine, signature, 0, max_total, DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_BORROW_TIMEOUT_MS);
+  }
+
+  /**
+   * Spawns sessions for {@code settings} until min_idle of them are idle,
+   * as far as max_total allows. Call it at startup to keep the signature
+   * check and session setup out of the first requests. With adaptive
+   * multi-threading the sessions are spawned in the current mode of the
+   * controller. Sessions for calls with a {@link Deadline} are not
+   * prespawned, as their session timeout depends on the time left.
+   */
+  public void Prespawn(CodeEngineSessionSettings settings) {
+    Prespawn(SettingsFingerprint.Of(settings), settings);
+  }
+
+  /**
+   * Same as {@link #Prespawn(CodeEngineSessionSettings)} for settings
+   * interned in {@code templates}.
+   */
+  public void Prespawn(SettingsTemplateCache templates, SettingsFingerprint fingerprint) {
+    CodeEngineSessionSettings settings = Template(templates, fingerprint);
+    try {
+      Prespawn(fingerprint, settings);
+    } finally {
+      settings.delete();
+    }
+  }
+
+  /**
+   * Same as {@link #Prespawn(CodeEngineSessionSettings)} for the settings
+   * compiled from {@code profile}.
+   */
+  public void Prespawn(SettingsProfile profile) {
+    Prespawn(profile.GetFingerprint(engine), profile.GetTemplate(engine));
+  }
+
+  private void Prespawn(SettingsFingerprint key, CodeEngineSessionSettings settings) {
+    Partition partition;
+    try {
+      partition = SelectPartition(key, settings, null, false);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    try {
+      while (true) {
+        lock.lock();
+        try {
+          if (closed || partition.idle.size() >= minIdle || total >= maxTotal)
+            return;
+          total++;
+        } finally {
+          lock.unlock();
+        }
+
+        CodeEngineSession session = Spawn(partition);
+        boolean pooled = false;
+        lock.lock();
+        try {
+          if (!closed) {
+            partition.idle.addFirst(new IdleSession(session, System.nanoTime()));
+            available.signal();
+            pooled = true;
+          }
+        } finally {
+          lock.unlock();
+        }
+        if (!pooled)
+          Discard(session);
+      }
+    } finally {
+      Release(partition);
+    }
+  }
+
+  /**
+   * Hands out a session spawned with options equal to {@code settings}.
+   * Blocks up to borrow_timeout_ms when max_total sessions are already
+   * borrowed. The session must be given back with Return() or Invalidate().
+   *
+   * @throws TimeoutException if no session became available in time
+   */
+  public CodeEngineSession Borrow(CodeEngineSessionSettings settings)
+      throws InterruptedException, TimeoutException {
+    return BorrowNanos(SettingsFingerprint.Of(settings), settings, borrowTimeoutNanos);
+  }
+
+  /**
+   * Same as {@link #Borrow(CodeEngineSessionSettings)} but waits at most
+   * {@code timeout_ms} instead of borrow_timeout_ms.
+   */
+  public CodeEngineSession Borrow(CodeEngineSessionSettings settings, long timeout_ms)
+      throws InterruptedException, TimeoutException {
+    return BorrowNanos(SettingsFingerprint.Of(settings), settings,
+                       TimeUnit.MILLISECONDS.toNanos(Math.max(timeout_ms, 0)));
+  }
+
+  /**
+   * Hands out a session spawned with the settings compiled from
+   * {@code profile}. Unlike {@link #Borrow(CodeEngineSessionSettings)}, the
+   * option map is not read back from the native settings on every call.
+   */
+  public CodeEngineSession Borrow(SettingsProfile profile)
+      throws InterruptedException, TimeoutException {
+    return BorrowNanos(profile.GetFingerprint(engine), profile.GetTemplate(engine),
+                       borrowTimeoutNanos);
+  }
+
+  public CodeEngineSession Borrow(SettingsProfile profile, long timeout_ms)
+      throws InterruptedException, TimeoutException {
+    return BorrowNanos(profile.GetFingerprint(engine), profile.GetTemplate(engine),
+                       TimeUnit.MILLISECONDS.toNanos(Math.max(timeout_ms, 0)));
+  }
+
+  /**
+   * Hands out a session spawned with the settings interned in
+   * {@code templates} under {@code fingerprint}.
+   */
+  public CodeEngineSession Borrow(SettingsTemplateCache templates, SettingsFingerprint fingerprint)
+      throws InterruptedException, TimeoutException {
+    return Borrow(templates, fingerprint, TimeUnit.NANOSECONDS.toMillis(borrowTimeoutNanos));
+  }
+
+  public CodeEngineSession Borrow(SettingsTemplateCache templates, SettingsFingerprint fingerprint,
+                                  long timeout_ms)
+      throws InterruptedException, TimeoutException {
+    CodeEngineSessionSettings settings = Template(templates, fingerprint);
+    try {
+      return BorrowNanos(fingerprint, settings,
+                         TimeUnit.MILLISECONDS.toNanos(Math.max(timeout_ms, 0)));
+    } finally {
+      settings.delete();
+    }
+  }
+
+  /**
+   * Hands out a session spawned with {@code settings} and a session timeout
+   * ending before {@code deadline}.
+   *
+   * @throws TimeoutException if the deadline expired before a session
+   *                          became available
+   */
+  public CodeEngineSession Borrow(CodeEngineSessionSettings settings, Deadline deadline)
+      throws InterruptedException, TimeoutException {
+    return BorrowBefore(SettingsFingerprint.Of(settings), settings, deadline);
+  }
+
+  public CodeEngineSession Borrow(SettingsProfile profile, Deadline deadline)
+      throws InterruptedException, TimeoutException {
+    return BorrowBefore(profile.GetFingerprint(engine), profile.GetTemplate(engine), deadline);
+  }
+
+  /**
+   * Recognizes {@code image} with a session spawned with {@code settings},
+   * by {@code deadline}. If the deadline has passed once the image is
+   * processed, the result is still returned, possibly partial since the
+   * session timed out, and the call is counted as late.
+   *
+   * @throws TimeoutException if the deadline expired before recognition
+   *                          started
+   */
+  public ResultSnapshot Process(Image image, CodeEngineSessionSettings settings,
+                                Deadline deadline) throws InterruptedException, TimeoutException {
+    return ProcessBefore(image, Borrow(settings, deadline), deadline);
+  }
+
+  public ResultSnapshot Process(Image image, SettingsProfile profile, Deadline deadline)
+      throws InterruptedException, TimeoutException {
+    return ProcessBefore(image, Borrow(profile, deadline), deadline);
+  }
+
+  /**
+   * Processes {@code image} with {@code session}, borrowed from this pool,
+   * and returns a snapshot of the result. The time spent in Process() is
+   * reported to the {@link MultiThreadingController}, which does not see
+   * calls made on the session directly.
+   */
+  public ResultSnapshot Process(CodeEngineSession session, Image image) {
+    Partition partition;
+    lock.lock();
+    try {
+      BorrowedSession borrowed_session = borrowed.get(session);
+      if (borrowed_session == null)
+        throw new IllegalArgumentException("Session was not borrowed from this pool");
+      partition = borrowed_session.partition;
+    } finally {
+      lock.unlock();
+    }
+    long start = System.nanoTime();
+    CodeEngineResult result = session.Process(image);
+    MultiThreadingController controller = multiThreadingController;
+    if (controller != null && partition.threadingMode != null)
+      controller.Completed(partition.threadingMode, System.nanoTime() - start);
+    return result.Snapshot();
+  }
+
+  /**
+   * Deadline misses of the calls made with a {@link Deadline}.
+   */
+  public DeadlineStats GetDeadlineStats() {
+    return deadlineStats;
+  }
+
+  /**
+   * Lets a {@link MultiThreadingController} set global.enableMultiThreading
+   * of the sessions handed out from now on: on while at most
+   * {@code high_demand} sessions are borrowed or awaited, off above that
+   * until the demand has stayed at or below {@code low_demand} for
+   * {@code cool_down_ms}, see {@link MultiThreadingController} for how
+   * latency is taken into account. The option is only overridden in
+   * settings leaving it at the default of the engine; settings setting it
+   * explicitly keep their value.
+   */
+  public void EnableAdaptiveMultiThreading(int low_demand, int high_demand, long cool_down_ms) {
+    multiThreadingController = new MultiThreadingController(low_demand, high_demand,
+                                                            cool_down_ms);
+  }
+
+  /**
+   * Enables adaptive multi-threading with single-threaded sessions above
+   * a demand of two, and multi-threaded ones again after the demand has
+   * stayed at one for a second.
+   */
+  public void EnableAdaptiveMultiThreading() {
+    EnableAdaptiveMultiThreading(1, 2, 1000);
+  }
+
+  /**
+   * Returns the controller of global.enableMultiThreading, or null if
+   * adaptive multi-threading is not enabled.
+   */
+  public MultiThreadingController GetMultiThreadingController() {
+    return multiThreadingController;
+  }
+
+  // Counts a call with a deadline which expired before it reached the pool
+  void Shed(CodeEngineSessionSettings settings) {
+    int[] groups = DeadlineStats.EnabledGroups(settings);
+    deadlineStats.Called(groups);
+    deadlineStats.Shed(groups);
+  }
+
+  void Shed(SettingsProfile profile) {
+    Shed(profile.GetTemplate(engine));
+  }
+
+  private CodeEngineSession BorrowNanos(SettingsFingerprint key, CodeEngineSessionSettings settings,
+                                        long timeout_nanos)
+      throws InterruptedException, TimeoutException {
+    CodeEngineSession session = BorrowFrom(SelectPartition(key, settings, null), timeout_nanos);
+    if (session == null)
+      throw new TimeoutException("Timed out waiting for a recognition session");
+    return session;
+  }
+
+  private CodeEngineSession BorrowBefore(SettingsFingerprint key,
+                                         CodeEngineSessionSettings settings,
+                                         Deadline deadline)
+      throws InterruptedException, TimeoutException {
+    if (deadline == null)
+      throw new IllegalArgumentException("deadline is null");
+    long step = SessionTimeoutStep(deadline.GetRemainingNanos());
+    Partition partition = null;
+    if (step > 0)
+      partition = SelectPartition(key, settings, Double.toString(step / 1e6));
+    int[] groups = partition != null ? partition.groups : DeadlineStats.EnabledGroups(settings);
+    deadlineStats.Called(groups);
+    CodeEngineSession session = null;
+    if (partition != null) {
+      long remaining = deadline.GetRemainingNanos();
+      if (remaining > 0)
+        session = BorrowFrom(partition, remaining);
+      else
+        Release(partition);
+    }
+    // A session acquired after a wait keeps its step even if it no longer
+    // fits; getting one with a shorter step would mean spawning it, at the
+    // worst time. The call is counted as late if it overruns.
+    if (session != null && SessionTimeoutStep(deadline.GetRemainingNanos()) == 0) {
+      PutBack(session);
+      session = null;
+    }
+    if (session == null) {
+      deadlineStats.Shed(groups);
+      throw new TimeoutException("Deadline expired before recognition started");
+    }
+    return session;
+  }
+
+  private ResultSnapshot ProcessBefore(Image image, CodeEngineSession session, Deadline deadline) {
+    boolean ok = false;
+    try {
+      ResultSnapshot result = Process(session, image);
+      if (deadline.IsExpired()) {
+        Partition partition;
+        lock.lock();
+        try {
+          partition = borrowed.get(session).partition;
+        } finally {
+          lock.unlock();
+        }
+        deadlineStats.Late(partition.groups);
+      }
+      ok = true;
+      return result;
+    } finally {
+      if (ok)
+        Return(session);
+      else
+        Invalidate(session);
+    }
+  }
+
+  // Returns the session, or null if none became available in time. The
+  // reference to partition passes to the session or is dropped.
+  private CodeEngineSession BorrowFrom(Partition partition, long timeout_nanos)
+      throws InterruptedException {
+    CodeEngineSession session = null;
+    try {
+      session = TakeOrSpawn(partition, timeout_nanos);
+      return session;
+    } finally {
+      if (session == null)
+        Release(partition);
+    }
+  }
+
+  private CodeEngineSession TakeOrSpawn(Partition partition, long timeout_nanos)
+      throws InterruptedException {
+    CodeEngineSession evicted = null;
+    CodeEngineSessionSettings pruned = null;
+    lock.lockInterruptibly();
+    try {
+      long remaining = timeout_nanos;
+      while (true) {
+        EnsureOpen();
+        IdleSession idle = partition.idle.pollFirst();
+        if (idle != null) {
+          borrowed.put(idle.session, new BorrowedSession(partition));
+          return idle.session;
+        }
+        if (total < maxTotal) {
+          // Reserve a slot and spawn outside of the lock
+          total++;
+          break;
+        }
+        Partition victim = ForeignIdle(partition);
+        if (victim != null) {
+          // Take over the slot of the oldest idle session spawned with
+          // other settings, deleted outside of the lock
+          evicted = victim.idle.pollLast().session;
+          pruned = Prune(victim);
+          break;
+        }
+        if (remaining <= 0)
+          return null;
+        waiting++;
+        try {
+          remaining = available.awaitNanos(remaining);
+        } finally {
+          waiting--;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (pruned != null)
+      pruned.delete();
+    if (evicted != null) {
+      boolean deleted = false;
+      try {
+        evicted.delete();
+        deleted = true;
+      } finally {
+        if (!deleted)
+          ReleaseSlot();
+      }
+    }
+    CodeEngineSession session = Spawn(partition);
+    lock.lock();
+    try {
+      borrowed.put(session, new BorrowedSession(partition));
+    } finally {
+      lock.unlock();
+    }
+    return session;
+  }
+
+  /**
+   * Resets a borrowed session and puts it back into the pool.
+   */
+  public void Return(CodeEngineSession session) {
+    BorrowedSession borrowed_session;
+    lock.lock();
+    try {
+      borrowed_session = borrowed.remove(session);
+    } finally {
+      lock.unlock();
+    }
+    if (borrowed_session == null)
+      throw new IllegalArgumentException("Session was not borrowed from this pool");
+    Partition partition = borrowed_session.partition;
+
+    boolean pooled = false;
+    try {
+      session.Reset();
+      lock.lock();
+      try {
+        if (!closed) {
+          partition.idle.addFirst(new IdleSession(session, System.nanoTime()));
+          available.signal();
+          pooled = true;
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      if (!pooled)
+        Discard(session);
+      Release(partition);
+    }
+  }
+
+  // Puts back a borrowed session which has not processed anything, so it
+  // needs no Reset() and its call is not measured
+  private void PutBack(CodeEngineSession session) {
+    BorrowedSession borrowed_session;
+    boolean pooled = false;
+    lock.lock();
+    try {
+      borrowed_session = borrowed.remove(session);
+      if (!closed) {
+        borrowed_session.partition.idle.addFirst(new IdleSession(session, System.nanoTime()));
+        available.signal();
+        pooled = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    try {
+      if (!pooled)
+        Discard(session);
+    } finally {
+      Release(borrowed_session.partition);
+    }
+  }
+
+  /**
+   * Deletes a borrowed session instead of returning it, e.g. after the
+   * session has thrown during Process().
+   */
+  public void Invalidate(CodeEngineSession session) {
+    BorrowedSession borrowed_session;
+    lock.lock();
+    try {
+      borrowed_session = borrowed.remove(session);
+    } finally {
+      lock.unlock();
+    }
+    if (borrowed_session == null)
+      throw new IllegalArgumentException("Session was not borrowed from this pool");
+    try {
+      Discard(session);
+    } finally {
+      Release(borrowed_session.partition);
+    }
+  }
+
+  /**
+   * Deletes sessions that stayed idle longer than idle_timeout_ms, keeping
+   * min_idle sessions per settings fingerprint, and the settings of
+   * fingerprints left without sessions. Runs periodically on a background
+   * thread when idle eviction is enabled.
+   */
+  public void EvictIdle() {
+    if (idleTimeoutNanos == 0)
+      return;
+    List<CodeEngineSession> evicted = new ArrayList<CodeEngineSession>();
+    List<CodeEngineSessionSettings> pruned = new ArrayList<CodeEngineSessionSettings>();
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      for (Partition partition : new ArrayList<Partition>(partitions.values())) {
+        while (partition.idle.size() > minIdle) {
+          IdleSession oldest = partition.idle.peekLast();
+          if (now - oldest.idleSince < idleTimeoutNanos)
+            break;
+          partition.idle.pollLast();
+          evicted.add(oldest.session);
+        }
+        CodeEngineSessionSettings settings = Prune(partition);
+        if (settings != null)
+          pruned.add(settings);
+      }
+    } finally {
+      lock.unlock();
+    }
+    for (CodeEngineSessionSettings settings : pruned)
+      settings.delete();
+    for (CodeEngineSession session : evicted)
+      Discard(session);
+  }
+
+  public int GetTotalCount() {
+    lock.lock();
+    try {
+      return total;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int GetIdleCount() {
+    lock.lock();
+    try {
+      int count = 0;
+      for (Partition partition : partitions.values())
+        count += partition.idle.size();
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int GetBorrowedCount() {
+    lock.lock();
+    try {
+      return borrowed.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Deletes all idle sessions. Sessions still borrowed are deleted when
+   * they are returned. The engine itself is not deleted.
+   */
+  public void close() {
+    List<CodeEngineSession> idle = new ArrayList<CodeEngineSession>();
+    lock.lock();
+    try {
+      if (closed)
+        return;
+      closed = true;
+      for (Partition partition : partitions.values()) {
+        for (IdleSession s : partition.idle)
+          idle.add(s.session);
+        partition.idle.clear();
+      }
+      total -= idle.size();
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    if (evictor != null)
+      evictor.shutdownNow();
+    for (CodeEngineSession session : idle)
+      session.delete();
+    lock.lock();
+    try {
+      ReleaseIfDrained();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Returns a copy of the template, owned by the caller
+  private CodeEngineSessionSettings Template(SettingsTemplateCache templates,
+                                             SettingsFingerprint fingerprint) {
+    if (templates.GetEngine() != engine)
+      throw new IllegalArgumentException("Settings templates belong to another engine");
+    return templates.NewSettings(fingerprint);
+  }
+
+  // Returns the partition of settings with the session timeout, unless
+  // null, and the multi-threading mode chosen by the controller applied.
+  // The caller must Release() the partition unless a session borrowed from
+  // it takes the reference over.
+  private Partition SelectPartition(SettingsFingerprint key, CodeEngineSessionSettings settings,
+                                    String session_timeout) throws InterruptedException {
+    return SelectPartition(key, settings, session_timeout, true);
+  }
+
+  // Same, with the demand of a borrow reported to the controller unless
+  // borrowing is false, in which case its current mode is used
+  private Partition SelectPartition(SettingsFingerprint key, CodeEngineSessionSettings settings,
+                                    String session_timeout, boolean borrowing)
+      throws InterruptedException {
+    MultiThreadingController controller = multiThreadingController;
+    VariantKey variant_key;
+    lock.lockInterruptibly();
+    try {
+      EnsureOpen();
+      String multi_threading = null;
+      if (controller != null) {
+        MultiThreadingController.Mode mode = borrowing
+            ? controller.Update(borrowed.size() + waiting + 1) : controller.GetMode();
+        multi_threading = Boolean.toString(mode == MultiThreadingController.Mode.MultiThreaded);
+      }
+      if (multi_threading == null && session_timeout == null)
+        return GetPartition(key, settings);
+      variant_key = new VariantKey(key, multi_threading, session_timeout);
+      SettingsFingerprint fingerprint = variants.get(variant_key);
+      Partition partition = fingerprint != null ? partitions.get(fingerprint) : null;
+      if (partition != null) {
+        partition.refs++;
+        return partition;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    // First call with this variant, or its sessions were all evicted;
+    // derive the settings outside of the lock
+    CodeEngineSessionSettings derived = settings.Clone();
+    try {
+      String global = jnicodeengine.toString(EngineSettingsGroup.Global) + ".";
+      String multi_threading = variant_key.multiThreading;
+      if (multi_threading != null) {
+        String option = global + "enableMultiThreading";
+        // An explicit value of the settings themselves is kept
+        String value = derived.HasOption(option) ? derived.GetOption(option) : "";
+        if (!value.equals(DefaultMultiThreading(option)))
+          multi_threading = null;
+        else
+          derived.SetOption(option, multi_threading);
+      }
+      if (variant_key.sessionTimeout != null) {
+        String option = global + "sessionTimeout";
+        // A shorter timeout of the settings themselves is kept
+        double timeout = derived.HasOption(option) ? Double.parseDouble(derived.GetOption(option))
+                                                   : 0;
+        if (timeout <= 0 || timeout > Double.parseDouble(variant_key.sessionTimeout))
+          derived.SetOption(option, variant_key.sessionTimeout);
+      }
+      SettingsFingerprint fingerprint = SettingsFingerprint.Of(derived);
+      lock.lockInterruptibly();
+      try {
+        EnsureOpen();
+        Partition partition = GetPartition(fingerprint, derived);
+        if (partition.threadingMode == null && multi_threading != null) {
+          partition.threadingMode = multi_threading.equals("true")
+              ? MultiThreadingController.Mode.MultiThreaded
+              : MultiThreadingController.Mode.SingleThreaded;
+        }
+        variants.put(variant_key, fingerprint);
+        return partition;
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      derived.delete();
+    }
+  }
+
+  // Value of global.enableMultiThreading in the default settings
+  private String DefaultMultiThreading(String option) {
+    String value = defaultMultiThreading;
+    if (value == null) {
+      CodeEngineSessionSettings defaults = engine.GetDefaultSessionSettings();
+      try {
+        value = defaults.HasOption(option) ? defaults.GetOption(option) : "";
+      } finally {
+        defaults.delete();
+      }
+      defaultMultiThreading = value;
+    }
+    return value;
+  }
+
+  // Largest session timeout step in microseconds fitting in
+  // remaining_nanos give or take the slack, or 0 if even the shortest one
+  // does not fit
+  private static long SessionTimeoutStep(long remaining_nanos) {
+    double limit = remaining_nanos / 1e3 * (1 + SESSION_TIMEOUT_SLACK);
+    long step = 0;
+    for (long timeout : SESSION_TIMEOUT_STEPS) {
+      if (timeout > limit)
+        break;
+      step = timeout;
+    }
+    return step;
+  }
+
+  // Steps of the 1, 1.25, 1.5, 2, 2.5, 3, 4, 5, 6, 8 series, in
+  // microseconds, for the given number of decades from first
+  private static long[] TimeoutSteps(long first, int decades) {
+    final long[] mantissas = { 100, 125, 150, 200, 250, 300, 400, 500, 600, 800 };
+    long[] steps = new long[mantissas.length * decades];
+    long scale = first;
+    for (int d = 0; d < decades; ++d, scale *= 10) {
+      for (int i = 0; i < mantissas.length; ++i)
+        steps[d * mantissas.length + i] = mantissas[i] * scale / 100;
+    }
+    return steps;
+  }
+
+  // Returns the partition of key, created with a copy of settings if
+  // needed. The caller must Release() it. Must be called with lock held.
+  private Partition GetPartition(SettingsFingerprint key, CodeEngineSessionSettings settings) {
+    Partition partition = partitions.get(key);
+    if (partition == null) {
+      partition = new Partition(key, settings.Clone());
+      partitions.put(key, partition);
+    }
+    partition.refs++;
+    return partition;
+  }
+
+  // Drops a reference taken with GetPartition() and deletes the partition
+  // if it is left without sessions
+  private void Release(Partition partition) {
+    CodeEngineSessionSettings pruned;
+    lock.lock();
+    try {
+      partition.refs--;
+      pruned = Prune(partition);
+    } finally {
+      lock.unlock();
+    }
+    if (pruned != null)
+      pruned.delete();
+  }
+
+  // Removes partition if it has no idle sessions and no references, and
+  // returns its settings to be deleted outside of the lock, or null. Must
+  // be called with lock held.
+  private CodeEngineSessionSettings Prune(Partition partition) {
+    if (partition.refs > 0 || !partition.idle.isEmpty() ||
+        partitions.get(partition.key) != partition)
+      return null;
+    partitions.remove(partition.key);
+    variants.values().removeAll(Collections.singleton(partition.key));
+    return partition.settings;
+  }
+
+  // Spawns a session for a slot already reserved in total
+  private CodeEngineSession Spawn(Partition partition) {
+    CodeEngineSession session = null;
+    try {
+      session = engine.SpawnSession(partition.settings, signature);
+    } finally {
+      if (session == null)
+        ReleaseSlot();
+    }
+    return session;
+  }
+
+  private void Discard(CodeEngineSession session) {
+    try {
+      session.delete();
+    } finally {
+      ReleaseSlot();
+    }
+  }
+
+  private void ReleaseSlot() {
+    lock.lock();
+    try {
+      total--;
+      available.signal();
+      ReleaseIfDrained();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Partition other than requester holding the oldest idle session, or
+  // null. Must be called with lock held.
+  private Partition ForeignIdle(Partition requester) {
+    Partition victim = null;
+    for (Partition partition : partitions.values()) {
+      if (partition == requester || partition.idle.isEmpty())
+        continue;
+      if (victim == null ||
+          partition.idle.peekLast().idleSince < victim.idle.peekLast().idleSince)
+        victim = partition;
+    }
+    return victim;
+  }
+
+  // Must be called with lock held
+  private void EnsureOpen() {
+    if (closed)
+      throw new IllegalStateException("Session pool is closed");
+  }
+
+  // Deletes the settings templates once the pool is closed and no session
+  // is alive or being spawned anymore. Must be called with lock held.
+  private void ReleaseIfDrained() {
+    if (!closed || total != 0)
+      return;
+    for (Iterator<Partition> it = partitions.values().iterator(); it.hasNext(); ) {
+      it.next().settings.delete();
+      it.remove();
+    }
+    variants.clear();
+  }
+
+  private static final class Partition {
+    final SettingsFingerprint key;
+    final CodeEngineSessionSettings settings;
+    // Engine groups enabled in settings, for the deadline statistics
+    final int[] groups;
+    final ArrayDeque<IdleSession> idle = new ArrayDeque<IdleSession>();
+    // Borrowed sessions and callers using the partition outside of the
+    // lock, guarded by lock
+    int refs = 0;
+    // Multi-threading mode the settings were derived for, null if not
+    // derived by the controller; guarded by lock
+    MultiThreadingController.Mode threadingMode;
+
+    Partition(SettingsFingerprint key, CodeEngineSessionSettings settings) {
+      this.key = key;
+      this.settings = settings;
+      this.groups = DeadlineStats.EnabledGroups(settings);
+    }
+  }
+
+  private static final class VariantKey {
+    final SettingsFingerprint fingerprint;
+    // Overridden global option values, null if not overridden
+    final String multiThreading;
+    final String sessionTimeout;
+
+    VariantKey(SettingsFingerprint fingerprint, String multi_threading, String session_timeout) {
+      this.fingerprint = fingerprint;
+      this.multiThreading = multi_threading;
+      this.sessionTimeout = session_timeout;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof VariantKey))
+        return false;
+      VariantKey key = (VariantKey) other;
+      return fingerprint.equals(key.fingerprint) && Equal(multiThreading, key.multiThreading) &&
+          Equal(sessionTimeout, key.sessionTimeout);
+    }
+
+    @Override
+    public int hashCode() {
+      return (fingerprint.hashCode() * 31 + Hash(multiThreading)) * 31 + Hash(sessionTimeout);
+    }
+
+    private static boolean Equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+
+    private static int Hash(String a) {
+      return a == null ? 0 : a.hashCode();
+    }
+  }
+
+  private static final class BorrowedSession {
+    final Partition partition;
+
+    BorrowedSession(Partition partition) {
+      this.partition = partition;
+    }
+  }
+
+  private static final class IdleSession {
+    final CodeEngineSession session;
+    final long idleSince;
+
+    IdleSession(CodeEngineSession session, long idleSince) {
+      this.session = session;
+      this.idleSince = idleSince;
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a recognition call must complete, on the
+ * {@link System#nanoTime()} clock.
+ *
+ * <p>A deadline is passed along with a call rather than a timeout, so
+ * that the time spent waiting in queues and for a session is deducted from
+ * the time left for recognition.
+ */
+public final class Deadline {
+
+  private final long nanoTime;
+
+  private Deadline(long nano_time) {
+    this.nanoTime = nano_time;
+  }
+
+  /**
+   * Deadline {@code timeout_ms} from now.
+   */
+  public static Deadline After(long timeout_ms) {
+    if (timeout_ms < 0)
+      throw new IllegalArgumentException("timeout_ms must be non-negative");
+    return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms));
+  }
+
+  /**
+   * Deadline at {@code nano_time} of the {@link System#nanoTime()} clock.
+   */
+  public static Deadline AtNanoTime(long nano_time) {
+    return new Deadline(nano_time);
+  }
+
+  public long GetNanoTime() {
+    return nanoTime;
+  }
+
+  /**
+   * Time left until the deadline, negative once it has passed.
+   */
+  public long GetRemainingNanos() {
+    return nanoTime - System.nanoTime();
+  }
+
+  public boolean IsExpired() {
+    return GetRemainingNanos() <= 0;
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline in " + TimeUnit.NANOSECONDS.toMillis(GetRemainingNanos()) + " ms";
+  }
+
+}
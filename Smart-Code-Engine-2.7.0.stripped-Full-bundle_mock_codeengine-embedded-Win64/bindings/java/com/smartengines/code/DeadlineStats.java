@@ -0,0 +1,118 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the recognition calls which missed their {@link Deadline}, per
+ * internal engine group enabled in the session settings of the call.
+ *
+ * <p>A call misses its deadline either by being shed, when the deadline
+ * expired before the recognition started, or by being late, when the
+ * recognition completed after the deadline. Calls with several engines
+ * enabled are counted for each of them.
+ */
+public final class DeadlineStats {
+
+  private static final EngineSettingsGroup[] ENGINE_GROUPS = {
+      EngineSettingsGroup.Barcode, EngineSettingsGroup.Card, EngineSettingsGroup.CodeTextLine,
+      EngineSettingsGroup.Mrz, EngineSettingsGroup.PaymentDetails,
+      EngineSettingsGroup.LicensePlate, EngineSettingsGroup.ShippingContainer };
+
+  private final AtomicLongArray callCount = new AtomicLongArray(ENGINE_GROUPS.length);
+  private final AtomicLongArray shedCount = new AtomicLongArray(ENGINE_GROUPS.length);
+  private final AtomicLongArray lateCount = new AtomicLongArray(ENGINE_GROUPS.length);
+
+  DeadlineStats() {
+  }
+
+  /**
+   * Number of calls with a deadline for engines of {@code group}.
+   */
+  public long GetCallCount(EngineSettingsGroup group) {
+    return callCount.get(IndexOf(group));
+  }
+
+  /**
+   * Number of calls for engines of {@code group} skipped because their
+   * deadline had expired before they started.
+   */
+  public long GetShedCount(EngineSettingsGroup group) {
+    return shedCount.get(IndexOf(group));
+  }
+
+  /**
+   * Number of calls for engines of {@code group} which completed after
+   * their deadline or returned a partial result.
+   */
+  public long GetLateCount(EngineSettingsGroup group) {
+    return lateCount.get(IndexOf(group));
+  }
+
+  public long GetMissCount(EngineSettingsGroup group) {
+    return GetShedCount(group) + GetLateCount(group);
+  }
+
+  /**
+   * One line per engine group with calls so far.
+   */
+  public String GetReport() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < ENGINE_GROUPS.length; ++i) {
+      if (callCount.get(i) == 0)
+        continue;
+      sb.append(ENGINE_GROUPS[i]).append(": ").append(callCount.get(i)).append(" calls, ")
+        .append(shedCount.get(i)).append(" shed, ").append(lateCount.get(i)).append(" late\n");
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return GetReport();
+  }
+
+  // Engine groups enabled in settings, as indices into ENGINE_GROUPS
+  static int[] EnabledGroups(CodeEngineSessionSettings settings) {
+    List<Integer> enabled = new ArrayList<Integer>();
+    for (int i = 0; i < ENGINE_GROUPS.length; ++i) {
+      String option = jnicodeengine.toString(ENGINE_GROUPS[i]) + ".enabled";
+      if (settings.HasOption(option) && settings.GetOption(option).equals("true"))
+        enabled.add(i);
+    }
+    int[] groups = new int[enabled.size()];
+    for (int i = 0; i < groups.length; ++i)
+      groups[i] = enabled.get(i);
+    return groups;
+  }
+
+  void Called(int[] groups) {
+    for (int group : groups)
+      callCount.incrementAndGet(group);
+  }
+
+  void Shed(int[] groups) {
+    for (int group : groups)
+      shedCount.incrementAndGet(group);
+  }
+
+  void Late(int[] groups) {
+    for (int group : groups)
+      lateCount.incrementAndGet(group);
+  }
+
+  private static int IndexOf(EngineSettingsGroup group) {
+    for (int i = 0; i < ENGINE_GROUPS.length; ++i) {
+      if (ENGINE_GROUPS[i].swigValue() == group.swigValue())
+        return i;
+    }
+    throw new IllegalArgumentException("No engines in group " + group);
+  }
+
+}
@@ -0,0 +1,376 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the current {@link CodeEngine} of a service and replaces it with an
+ * engine built from a new configuration bundle without interrupting
+ * recognition.
+ *
+ * <p>Users take a {@link Lease} on the current engine for as long as they
+ * use it or any session spawned from it. A reload builds the new engine on
+ * a background thread, warms it up with {@link Listener#WarmUp(CodeEngine)}
+ * and then atomically makes it current: leases taken afterwards get the new
+ * engine, while the sessions running on the old one finish undisturbed. The
+ * old engine is deleted once its last lease is closed. If the new engine
+ * cannot be created or warmed up, the current engine stays in place.
+ *
+ * <pre>
+ * try (EngineRegistry.Lease lease = registry.Acquire()) {
+ *   CodeEngineSession session = lease.GetEngine().SpawnSession(settings, signature);
+ *   // ...
+ *   session.delete();
+ * }
+ * </pre>
+ *
+ * <p>A registry created with a signature also keeps a
+ * {@link CodeEngineSessionPool} per engine. Leases taken after a reload
+ * borrow from the pool of the new engine, while sessions borrowed from the
+ * old pool are returned to it. The old pool is closed and its engine
+ * deleted once the last lease on it is closed, so sessions must be
+ * returned before their lease is closed:
+ *
+ * <pre>
+ * try (EngineRegistry.Lease lease = registry.Acquire()) {
+ *   CodeEngineSession session = lease.GetPool().Borrow(profile);
+ *   try {
+ *     // ...
+ *   } finally {
+ *     lease.GetPool().Return(session);
+ *   }
+ * }
+ * </pre>
+ */
+public class EngineRegistry implements AutoCloseable {
+
+  /**
+   * Receives the events of the registry. Calls other than WarmUp() may come
+   * from any thread.
+   */
+  public static class Listener {
+    /**
+     * Called on the loader thread with a new engine before it becomes
+     * current, e.g. to spawn a session and process a sample image. An
+     * exception aborts the reload and deletes the new engine.
+     */
+    public void WarmUp(CodeEngine engine) throws Exception {
+    }
+
+    /**
+     * Called once the engine of {@code generation} has become current.
+     *
+     * @param load_time_ns time spent creating and warming up the engine
+     */
+    public void EngineSwapped(long generation, long load_time_ns) {
+    }
+
+    /**
+     * Called when a replaced engine has been deleted after its last lease
+     * was closed.
+     */
+    public void EngineRetired(long generation) {
+    }
+
+    public void LoadFailed(Exception error) {
+    }
+  }
+
+  /**
+   * Reference to an engine keeping it alive until closed.
+   */
+  public static final class Lease implements AutoCloseable {
+    private final Entry entry;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    public CodeEngine GetEngine() {
+      if (closed.get())
+        throw new IllegalStateException("Lease is closed");
+      return entry.engine;
+    }
+
+    /**
+     * Session pool of the engine.
+     *
+     * @throws IllegalStateException if the registry keeps no pools
+     */
+    public CodeEngineSessionPool GetPool() {
+      if (closed.get())
+        throw new IllegalStateException("Lease is closed");
+      if (entry.pool == null)
+        throw new IllegalStateException("Engine registry was created without session pools");
+      return entry.pool;
+    }
+
+    /**
+     * Generation of the engine, incremented by every reload.
+     */
+    public long GetGeneration() {
+      return entry.generation;
+    }
+
+    /**
+     * Returns true if the engine has been replaced by a newer one.
+     */
+    public boolean IsStale() {
+      return entry.registry.current != entry;
+    }
+
+    public void close() {
+      if (closed.compareAndSet(false, true))
+        entry.Release();
+    }
+  }
+
+  private final Listener listener;
+  // Parameters of the session pools, null signature if there are none
+  private final String signature;
+  private final int maxSessions;
+  private final ExecutorService loader;
+  private volatile Entry current;
+  private final AtomicInteger retiringCount = new AtomicInteger();
+  private long nextGeneration = 1;
+  private boolean closed = false;
+
+  /**
+   * Creates a registry serving {@code engine}, which becomes owned by the
+   * registry.
+   *
+   * @param listener receives the registry events, may be null
+   */
+  public EngineRegistry(CodeEngine engine, Listener listener) {
+    this(engine, null, 0, listener);
+  }
+
+  public EngineRegistry(CodeEngine engine) {
+    this(engine, null);
+  }
+
+  /**
+   * Creates a registry serving {@code engine}, which becomes owned by the
+   * registry, with a pool of up to {@code max_sessions} sessions per
+   * engine, available from {@link Lease#GetPool()}.
+   *
+   * @param signature personalized signature passed to SpawnSession
+   * @param listener  receives the registry events, may be null
+   */
+  public EngineRegistry(CodeEngine engine, String signature, int max_sessions,
+                        Listener listener) {
+    if (engine == null)
+      throw new IllegalArgumentException("engine is null");
+    if (signature != null && max_sessions <= 0)
+      throw new IllegalArgumentException("max_sessions must be positive");
+    this.listener = listener != null ? listener : new Listener();
+    this.signature = signature;
+    this.maxSessions = max_sessions;
+    this.current = new Entry(this, engine, NewPool(engine), nextGeneration++);
+    this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "EngineRegistry-loader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Takes a lease on the current engine.
+   */
+  public Lease Acquire() {
+    while (true) {
+      Entry entry = current;
+      if (entry == null)
+        throw new IllegalStateException("Engine registry is closed");
+      if (entry.TryRetain())
+        return new Lease(entry);
+      // The entry was retired concurrently, retry with its successor
+    }
+  }
+
+  /**
+   * Generation of the current engine.
+   */
+  public long GetGeneration() {
+    Entry entry = current;
+    return entry == null ? 0 : entry.generation;
+  }
+
+  /**
+   * Number of replaced engines still in use, awaiting deletion.
+   */
+  public int GetRetiringCount() {
+    return retiringCount.get();
+  }
+
+  /**
+   * Creates an engine from the bundle at {@code config_path} in the
+   * background and makes it current once warmed up.
+   *
+   * @return future for the generation of the new engine
+   */
+  public Future<Long> ReloadAsync(final String config_path, final boolean lazy_configuration) {
+    return ReloadAsync(new Callable<CodeEngine>() {
+      public CodeEngine call() {
+        return CodeEngine.Create(config_path, lazy_configuration);
+      }
+    });
+  }
+
+  public Future<Long> ReloadAsync(final byte[] config_data, final boolean lazy_configuration) {
+    return ReloadAsync(new Callable<CodeEngine>() {
+      public CodeEngine call() {
+        return CodeEngine.Create(config_data, lazy_configuration);
+      }
+    });
+  }
+
+  public Future<Long> ReloadAsync(final ByteBuffer config_data, final boolean lazy_configuration) {
+    return ReloadAsync(new Callable<CodeEngine>() {
+      public CodeEngine call() {
+        return CodeEngine.Create(config_data, lazy_configuration);
+      }
+    });
+  }
+
+  /**
+   * Creates an engine with {@code factory} in the background and makes it
+   * current once warmed up. Reloads are performed one at a time, in the
+   * order they were requested.
+   */
+  public synchronized Future<Long> ReloadAsync(final Callable<CodeEngine> factory) {
+    if (closed)
+      throw new IllegalStateException("Engine registry is closed");
+    return loader.submit(new Callable<Long>() {
+      public Long call() throws Exception {
+        try {
+          return Load(factory);
+        } catch (Exception e) {
+          listener.LoadFailed(e);
+          throw e;
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops accepting leases and reloads. Engines are deleted as soon as
+   * their last lease is closed.
+   */
+  public void close() {
+    Entry entry;
+    synchronized (this) {
+      if (closed)
+        return;
+      closed = true;
+      entry = current;
+      current = null;
+    }
+    loader.shutdown();
+    if (entry != null) {
+      retiringCount.incrementAndGet();
+      entry.Release();
+    }
+  }
+
+  private Long Load(Callable<CodeEngine> factory) throws Exception {
+    long start = System.nanoTime();
+    CodeEngine engine = factory.call();
+    if (engine == null)
+      throw new RuntimeException("Engine creation returned no engine");
+    CodeEngineSessionPool pool = null;
+    boolean ok = false;
+    try {
+      listener.WarmUp(engine);
+      pool = NewPool(engine);
+      ok = true;
+    } finally {
+      if (!ok) {
+        SettingsProfile.ReleaseTemplates(engine);
+        engine.delete();
+      }
+    }
+    long load_time = System.nanoTime() - start;
+
+    Entry previous;
+    Entry entry;
+    synchronized (this) {
+      if (closed) {
+        if (pool != null)
+          pool.close();
+        SettingsProfile.ReleaseTemplates(engine);
+        engine.delete();
+        throw new IllegalStateException("Engine registry is closed");
+      }
+      entry = new Entry(this, engine, pool, nextGeneration++);
+      previous = current;
+      current = entry;
+    }
+    retiringCount.incrementAndGet();
+    previous.Release();
+    listener.EngineSwapped(entry.generation, load_time);
+    return entry.generation;
+  }
+
+  private CodeEngineSessionPool NewPool(CodeEngine engine) {
+    return signature == null ? null : new CodeEngineSessionPool(engine, signature, maxSessions);
+  }
+
+  private void Retired(Entry entry) {
+    retiringCount.decrementAndGet();
+    listener.EngineRetired(entry.generation);
+  }
+
+  // Engine and its session pool with a reference count; the registry
+  // holds one reference while the engine is current
+  private static final class Entry {
+    final EngineRegistry registry;
+    final CodeEngine engine;
+    final CodeEngineSessionPool pool;
+    final long generation;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    Entry(EngineRegistry registry, CodeEngine engine, CodeEngineSessionPool pool,
+          long generation) {
+      this.registry = registry;
+      this.engine = engine;
+      this.pool = pool;
+      this.generation = generation;
+    }
+
+    boolean TryRetain() {
+      while (true) {
+        int count = refs.get();
+        if (count == 0)
+          return false;
+        if (refs.compareAndSet(count, count + 1))
+          return true;
+      }
+    }
+
+    void Release() {
+      if (refs.decrementAndGet() == 0) {
+        if (pool != null)
+          pool.close();
+        SettingsProfile.ReleaseTemplates(engine);
+        engine.delete();
+        registry.Retired(this);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.Arrays;
+
+/**
+ * Pre-recognition check which rejects blurred frames before they reach
+ * Process().
+ *
+ * <p>The focus score of each frame is estimated with
+ * {@link Image#EstimateFocusScore(double)} on a downscaled clone of the
+ * frame (optionally of its central region only), which costs a small
+ * fraction of a Process() call. The threshold adapts to the camera and the
+ * scene: a frame is rejected if its score is below {@code threshold_ratio}
+ * times the 90th percentile of the scores of the last {@code window_size}
+ * frames. Until a few scores have been collected all frames are accepted,
+ * and frames whose score cannot be estimated are accepted as well.
+ *
+ * <p>The gate may be shared between threads; its metrics may be read at
+ * any time.
+ */
+public class FrameQualityGate {
+
+  private static final double REFERENCE_QUANTILE = 0.9;
+  private static final int MIN_SAMPLES = 5;
+
+  private final double thresholdRatio;
+  private final double focusQuantile;
+  private final int analysisSize;
+  private final double roiFraction;
+
+  // Rolling window of recent scores, guarded by this
+  private final double[] window;
+  private int windowCount = 0;
+  private int windowNext = 0;
+
+  private long evaluatedCount = 0;
+  private long skippedCount = 0;
+  private long unscoredCount = 0;
+  private double lastScore = Double.NaN;
+  private double lastThreshold = 0;
+
+  /**
+   * Creates a gate with a window of 30 frames, a threshold ratio of 0.6 and
+   * the whole frame analyzed at up to 320 pixels on its longer side.
+   */
+  public FrameQualityGate() {
+    this(30, 0.6, 0.95, 320, 1.0);
+  }
+
+  /**
+   * @param window_size     number of recent scores the threshold is learned from
+   * @param threshold_ratio fraction of the reference score a frame must reach
+   * @param focus_quantile  quantile passed to EstimateFocusScore()
+   * @param analysis_size   longer side of the clone the score is estimated on
+   * @param roi_fraction    relative size of the central region analyzed,
+   *                        1.0 for the whole frame
+   */
+  public FrameQualityGate(int window_size, double threshold_ratio, double focus_quantile,
+                          int analysis_size, double roi_fraction) {
+    if (window_size <= 0)
+      throw new IllegalArgumentException("window_size must be positive");
+    if (threshold_ratio < 0)
+      throw new IllegalArgumentException("threshold_ratio must be non-negative");
+    if (focus_quantile <= 0 || focus_quantile > 1)
+      throw new IllegalArgumentException("focus_quantile must be in (0, 1]");
+    if (analysis_size <= 0)
+      throw new IllegalArgumentException("analysis_size must be positive");
+    if (roi_fraction <= 0 || roi_fraction > 1)
+      throw new IllegalArgumentException("roi_fraction must be in (0, 1]");
+
+    this.window = new double[window_size];
+    this.thresholdRatio = threshold_ratio;
+    this.focusQuantile = focus_quantile;
+    this.analysisSize = analysis_size;
+    this.roiFraction = roi_fraction;
+  }
+
+  /**
+   * Estimates the focus score of {@code frame} and decides whether it is
+   * worth processing. The frame itself is left intact.
+   *
+   * @return false if the frame should be skipped
+   */
+  public boolean Accept(Image frame) {
+    double score;
+    try {
+      score = EstimateScore(frame);
+    } catch (Exception e) {
+      synchronized (this) {
+        unscoredCount++;
+      }
+      return true;
+    }
+
+    synchronized (this) {
+      evaluatedCount++;
+      lastScore = score;
+      lastThreshold = windowCount < Math.min(MIN_SAMPLES, window.length)
+          ? 0 : thresholdRatio * WindowQuantile(REFERENCE_QUANTILE);
+      window[windowNext] = score;
+      windowNext = (windowNext + 1) % window.length;
+      windowCount = Math.min(windowCount + 1, window.length);
+      if (score < lastThreshold) {
+        skippedCount++;
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Focus score of {@code frame} as seen by the gate.
+   */
+  public double EstimateScore(Image frame) {
+    Image roi = null;
+    Image small = null;
+    try {
+      Image source = frame;
+      if (roiFraction < 1.0) {
+        int width = Math.max((int) (frame.GetWidth() * roiFraction), 1);
+        int height = Math.max((int) (frame.GetHeight() * roiFraction), 1);
+        Rectangle rect = new Rectangle((frame.GetWidth() - width) / 2,
+                                       (frame.GetHeight() - height) / 2, width, height);
+        try {
+          roi = frame.CloneCroppedShallow(rect);
+        } finally {
+          rect.delete();
+        }
+        source = roi;
+      }
+
+      int longest = Math.max(source.GetWidth(), source.GetHeight());
+      if (longest > analysisSize) {
+        Size size = new Size(Math.max((int) ((long) source.GetWidth() * analysisSize / longest), 1),
+                             Math.max((int) ((long) source.GetHeight() * analysisSize / longest), 1));
+        try {
+          small = source.CloneResized(size);
+        } finally {
+          size.delete();
+        }
+        source = small;
+      }
+      return source.EstimateFocusScore(focusQuantile);
+    } finally {
+      if (small != null)
+        small.delete();
+      if (roi != null)
+        roi.delete();
+    }
+  }
+
+  /**
+   * Number of frames whose score was estimated.
+   */
+  public synchronized long GetEvaluatedCount() {
+    return evaluatedCount;
+  }
+
+  public synchronized long GetSkippedCount() {
+    return skippedCount;
+  }
+
+  /**
+   * Number of frames accepted because their score could not be estimated.
+   */
+  public synchronized long GetUnscoredCount() {
+    return unscoredCount;
+  }
+
+  /**
+   * Fraction of evaluated frames which were skipped.
+   */
+  public synchronized double GetSkipRate() {
+    return evaluatedCount == 0 ? 0 : (double) skippedCount / evaluatedCount;
+  }
+
+  public synchronized double GetLastScore() {
+    return lastScore;
+  }
+
+  /**
+   * Threshold the last evaluated frame was compared against, 0 while the
+   * gate is still collecting scores.
+   */
+  public synchronized double GetThreshold() {
+    return lastThreshold;
+  }
+
+  /**
+   * Quantile {@code q} of the scores in the rolling window, or NaN if no
+   * score has been collected yet.
+   */
+  public synchronized double GetScoreQuantile(double q) {
+    if (q < 0 || q > 1)
+      throw new IllegalArgumentException("Quantile must be in [0, 1]");
+    return windowCount == 0 ? Double.NaN : WindowQuantile(q);
+  }
+
+  /**
+   * Scores in the rolling window, oldest first.
+   */
+  public synchronized double[] GetRecentScores() {
+    double[] scores = new double[windowCount];
+    int start = windowCount < window.length ? 0 : windowNext;
+    for (int i = 0; i < windowCount; ++i)
+      scores[i] = window[(start + i) % window.length];
+    return scores;
+  }
+
+  /**
+   * Forgets the collected scores, e.g. when the camera or the scene changes.
+   * The counters are kept.
+   */
+  public synchronized void ResetWindow() {
+    windowCount = 0;
+    windowNext = 0;
+    lastThreshold = 0;
+  }
+
+  // Must be called with this locked and windowCount > 0
+  private double WindowQuantile(double q) {
+    double[] sorted = Arrays.copyOf(window, windowCount);
+    Arrays.sort(sorted);
+    return sorted[(int) Math.round(q * (windowCount - 1))];
+  }
+
+}
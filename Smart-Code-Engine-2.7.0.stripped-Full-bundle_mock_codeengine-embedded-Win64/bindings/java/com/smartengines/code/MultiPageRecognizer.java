@@ -0,0 +1,337 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import com.smartengines.common.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recognizes all pages of a multi-page image file, such as a TIFF,
+ * decoding and recognizing several pages at a time.
+ *
+ * <p>Pages are decoded with {@link Image#FromFile(String, int, Size)} on
+ * decoder threads and recognized on recognition threads with sessions
+ * borrowed from a {@link CodeEngineSessionPool}. Decoding runs ahead of
+ * recognition by at most {@code prefetch} pages, which bounds the number of
+ * decoded pages held in memory. Page results are streamed to a
+ * {@link PageListener} as they complete, in completion order, and merged
+ * into a {@link DocumentResult} once all pages are done.
+ */
+public class MultiPageRecognizer implements AutoCloseable {
+
+  // Default maximum page size of Image.FromFile(), see se_image.h
+  private static final int DEFAULT_MAX_PAGE_SIZE = 25000;
+
+  /**
+   * Receives page results as they complete. Calls are serialized but may
+   * come from different threads.
+   */
+  public static class PageListener {
+    public void PageProcessed(int page_index, ResultSnapshot result) {
+    }
+
+    public void PageFailed(int page_index, Exception error) {
+    }
+  }
+
+  /**
+   * Results of all pages of a document. Objects of all successfully
+   * processed pages are merged into one snapshot, with the page index of
+   * each object available from {@link #GetObjectPage(int)}. Object names
+   * clashing between pages get a numeric suffix.
+   */
+  public static final class DocumentResult {
+    private final ResultSnapshot[] pages;
+    private final Exception[] errors;
+    private final ResultSnapshot merged;
+    private final int[] objectPage;
+
+    private DocumentResult(ResultSnapshot[] pages, Exception[] errors) {
+      this.pages = pages;
+      this.errors = errors;
+      ResultSnapshot.Merger merger = new ResultSnapshot.Merger();
+      boolean terminal = true;
+      int count = 0;
+      for (ResultSnapshot page : pages) {
+        if (page != null)
+          count += page.GetObjectCount();
+      }
+      objectPage = new int[count];
+      for (int p = 0; p < pages.length; ++p) {
+        if (pages[p] == null) {
+          terminal = false;
+          continue;
+        }
+        terminal &= pages[p].IsTerminal();
+        for (int i = 0; i < pages[p].GetObjectCount(); ++i)
+          objectPage[merger.Add(pages[p].GetObject(i), 0, 0)] = p;
+      }
+      merged = merger.Build(terminal);
+    }
+
+    public int GetPageCount() {
+      return pages.length;
+    }
+
+    /**
+     * Result of page {@code page_index}, or null if the page failed.
+     */
+    public ResultSnapshot GetPage(int page_index) {
+      return pages[page_index];
+    }
+
+    /**
+     * Failure of page {@code page_index}, or null if it was processed.
+     */
+    public Exception GetPageError(int page_index) {
+      return errors[page_index];
+    }
+
+    public int GetFailedPageCount() {
+      int count = 0;
+      for (Exception error : errors) {
+        if (error != null)
+          count++;
+      }
+      return count;
+    }
+
+    /**
+     * Objects of all pages. Terminal if every page was processed and
+     * terminal.
+     */
+    public ResultSnapshot GetMergedResult() {
+      return merged;
+    }
+
+    /**
+     * Page index of object {@code object_index} of the merged result.
+     */
+    public int GetObjectPage(int object_index) {
+      return objectPage[object_index];
+    }
+  }
+
+  private final CodeEngineSessionPool pool;
+  private final ExecutorService decoders;
+  private final ExecutorService recognizers;
+  private final int numThreads;
+  private final int prefetch;
+  private final int maxPageWidth;
+  private final int maxPageHeight;
+
+  /**
+   * Creates a recognizer with {@code num_threads} recognition threads and
+   * as many decoder threads, decoding up to {@code prefetch} pages ahead
+   * of recognition. Pages are limited to the default maximum size of
+   * {@link Image#FromFile(String)}, 25000x25000 pixels. The pool is not
+   * owned and should allow at least {@code num_threads} sessions.
+   */
+  public MultiPageRecognizer(CodeEngineSessionPool pool, int num_threads, int prefetch) {
+    this(pool, num_threads, num_threads, prefetch, DEFAULT_MAX_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE);
+  }
+
+  /**
+   * @param pool           pool to borrow sessions from, not owned
+   * @param num_threads    number of pages recognized at a time
+   * @param decode_threads number of pages decoded at a time
+   * @param prefetch       number of decoded pages waiting for recognition
+   * @param max_page_width  maximum width of decoded pages, 0 for unrestricted
+   * @param max_page_height maximum height of decoded pages, 0 for unrestricted
+   */
+  public MultiPageRecognizer(CodeEngineSessionPool pool, int num_threads, int decode_threads,
+                             int prefetch, int max_page_width, int max_page_height) {
+    if (pool == null)
+      throw new IllegalArgumentException("pool is null");
+    if (num_threads <= 0 || decode_threads <= 0 || prefetch < 0)
+      throw new IllegalArgumentException("Invalid bounds: num_threads=" + num_threads +
+                                         ", decode_threads=" + decode_threads +
+                                         ", prefetch=" + prefetch);
+    if (max_page_width < 0 || max_page_height < 0)
+      throw new IllegalArgumentException("Maximum page size must be non-negative");
+    this.pool = pool;
+    this.numThreads = num_threads;
+    this.prefetch = prefetch;
+    this.maxPageWidth = max_page_width;
+    this.maxPageHeight = max_page_height;
+    this.decoders = Executors.newFixedThreadPool(decode_threads,
+                                                 DaemonThreads("MultiPageRecognizer-decoder"));
+    this.recognizers = Executors.newFixedThreadPool(num_threads,
+                                                    DaemonThreads("MultiPageRecognizer-worker"));
+  }
+
+  /**
+   * Recognizes all pages of {@code filename} with sessions spawned with
+   * {@code settings} and blocks until every page has been processed or has
+   * failed. A failed page does not stop the others.
+   *
+   * @param listener receives page results as they complete, may be null
+   */
+  public DocumentResult Process(String filename, CodeEngineSessionSettings settings,
+                                PageListener listener) throws InterruptedException {
+    int page_count = Image.GetNumberOfPages(filename);
+    Document document = new Document(filename, settings,
+                                     listener != null ? listener : new PageListener(),
+                                     page_count);
+    for (int page = 0; page < page_count; ++page)
+      decoders.execute(new DecodeTask(document, page));
+    try {
+      document.done.await();
+    } catch (InterruptedException e) {
+      document.cancelled = true;
+      throw e;
+    }
+    return new DocumentResult(document.results, document.errors);
+  }
+
+  public DocumentResult Process(String filename, CodeEngineSessionSettings settings)
+      throws InterruptedException {
+    return Process(filename, settings, null);
+  }
+
+  /**
+   * Shuts the decoder and recognition threads down. The pool is not
+   * closed.
+   */
+  public void close() {
+    decoders.shutdown();
+    recognizers.shutdown();
+  }
+
+  private static ThreadFactory DaemonThreads(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  // State of one Process() call
+  private final class Document {
+    final String filename;
+    final CodeEngineSessionSettings settings;
+    final PageListener listener;
+    final ResultSnapshot[] results;
+    final Exception[] errors;
+    final CountDownLatch done;
+    // Decoded or decoding pages not yet recognized
+    final Semaphore slots;
+    volatile boolean cancelled = false;
+
+    Document(String filename, CodeEngineSessionSettings settings, PageListener listener,
+             int page_count) {
+      this.filename = filename;
+      this.settings = settings;
+      this.listener = listener;
+      this.results = new ResultSnapshot[page_count];
+      this.errors = new Exception[page_count];
+      this.done = new CountDownLatch(page_count);
+      this.slots = new Semaphore(numThreads + prefetch);
+    }
+
+    void Complete(int page, ResultSnapshot result, Exception error) {
+      synchronized (this) {
+        results[page] = result;
+        errors[page] = error;
+        try {
+          if (error == null)
+            listener.PageProcessed(page, result);
+          else
+            listener.PageFailed(page, error);
+        } catch (RuntimeException e) {
+          // A failing listener must not stall the document
+        }
+      }
+      done.countDown();
+    }
+  }
+
+  private final class DecodeTask implements Runnable {
+    private final Document document;
+    private final int page;
+
+    DecodeTask(Document document, int page) {
+      this.document = document;
+      this.page = page;
+    }
+
+    public void run() {
+      boolean acquired = false;
+      Image image = null;
+      try {
+        document.slots.acquire();
+        acquired = true;
+        if (document.cancelled)
+          throw new InterruptedException("Document processing was interrupted");
+        Size max_size = new Size(maxPageWidth, maxPageHeight);
+        try {
+          image = Image.FromFile(document.filename, page, max_size);
+        } finally {
+          max_size.delete();
+        }
+        recognizers.execute(new RecognizeTask(document, page, image));
+        image = null;
+        acquired = false;
+      } catch (Exception e) {
+        document.Complete(page, null, e);
+      } finally {
+        if (image != null)
+          image.delete();
+        if (acquired)
+          document.slots.release();
+      }
+    }
+  }
+
+  private final class RecognizeTask implements Runnable {
+    private final Document document;
+    private final int page;
+    private final Image image;
+
+    RecognizeTask(Document document, int page, Image image) {
+      this.document = document;
+      this.page = page;
+      this.image = image;
+    }
+
+    public void run() {
+      ResultSnapshot result = null;
+      Exception error = null;
+      try {
+        if (document.cancelled)
+          throw new InterruptedException("Document processing was interrupted");
+        CodeEngineSession session = pool.Borrow(document.settings);
+        boolean ok = false;
+        try {
+          result = pool.Process(session, image);
+          ok = true;
+        } finally {
+          if (ok)
+            pool.Return(session);
+          else
+            pool.Invalidate(session);
+        }
+      } catch (Exception e) {
+        error = e;
+      } finally {
+        image.delete();
+        document.slots.release();
+      }
+      document.Complete(page, result, error);
+    }
+  }
+
+}
@@ -0,0 +1,222 @@
+/*
+  Copyright (c) 2016-2025, Smart Engines Service LLC
+  All rights reserved.
+*/
+
+package com.smartengines.code;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe cache of session settings templates of one {@link CodeEngine},
+ * one template per distinct option map.
+ *
+ * <p>Settings are interned once, which walks their option map and computes
+ * its {@link SettingsFingerprint}; requests then refer to the settings by
+ * fingerprint and get a {@code Clone()} of the template, with no options
+ * replayed and no option map walked:
+ *
+ * <pre>
+ * Map&lt;String, String&gt; options = new HashMap&lt;String, String&gt;();
+ * options.put("barcode.enabled", "true");
+ * options.put("barcode.COMMON.enabled", "true");
+ * SettingsFingerprint fingerprint = templates.Intern(options);
+ *
+ * // per request
+ * CodeEngineSessionSettings settings = templates.NewSettings(fingerprint);
+ * </pre>
+ *
+ * <p>Templates never leave the cache: {@link #NewSettings(SettingsFingerprint)}
+ * clones them under a read lock, and {@link #close()} deletes them under
+ * the write lock, so a copy being made is never deleted halfway.
+ */
+public class SettingsTemplateCache implements AutoCloseable {
+
+  private final CodeEngine engine;
+  // Guards the maps and closed; templates are only cloned under the read
+  // lock and deleted under the write lock
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final HashMap<SettingsFingerprint, CodeEngineSessionSettings> templates =
+      new HashMap<SettingsFingerprint, CodeEngineSessionSettings>();
+  // Fingerprints of the option maps passed to Intern(Map), which only list
+  // the options differing from the defaults
+  private final HashMap<SettingsFingerprint, SettingsFingerprint> overrides =
+      new HashMap<SettingsFingerprint, SettingsFingerprint>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private boolean closed = false;
+
+  /**
+   * @param engine engine providing the default settings, must outlive the
+   *               cache
+   */
+  public SettingsTemplateCache(CodeEngine engine) {
+    if (engine == null)
+      throw new IllegalArgumentException("engine is null");
+    this.engine = engine;
+  }
+
+  public CodeEngine GetEngine() {
+    return engine;
+  }
+
+  /**
+   * Adds a copy of {@code settings} to the cache unless settings with the
+   * same options are cached already. The caller keeps ownership of
+   * {@code settings}.
+   */
+  public SettingsFingerprint Intern(CodeEngineSessionSettings settings) {
+    SettingsFingerprint fingerprint = SettingsFingerprint.Of(settings);
+    lock.readLock().lock();
+    try {
+      EnsureOpen();
+      if (templates.containsKey(fingerprint)) {
+        hitCount.incrementAndGet();
+        return fingerprint;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    missCount.incrementAndGet();
+    Store(fingerprint, settings.Clone(), null);
+    return fingerprint;
+  }
+
+  /**
+   * Adds the default settings of the engine with {@code options} applied,
+   * unless they are cached already. Repeated calls with an equal map touch
+   * no native settings.
+   *
+   * @throws IllegalArgumentException if the engine rejects an option
+   */
+  public SettingsFingerprint Intern(Map<String, String> options) {
+    SettingsFingerprint key = SettingsFingerprint.Of(options);
+    lock.readLock().lock();
+    try {
+      EnsureOpen();
+      SettingsFingerprint fingerprint = overrides.get(key);
+      if (fingerprint != null) {
+        hitCount.incrementAndGet();
+        return fingerprint;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    missCount.incrementAndGet();
+    CodeEngineSessionSettings settings = Apply(engine, options);
+    SettingsFingerprint fingerprint = SettingsFingerprint.Of(settings);
+    Store(fingerprint, settings, key);
+    return fingerprint;
+  }
+
+  /**
+   * Returns a copy of the template with the given fingerprint, owned by
+   * the caller.
+   *
+   * @throws IllegalArgumentException if no such settings were interned
+   */
+  public CodeEngineSessionSettings NewSettings(SettingsFingerprint fingerprint) {
+    lock.readLock().lock();
+    try {
+      EnsureOpen();
+      CodeEngineSessionSettings template = templates.get(fingerprint);
+      if (template == null)
+        throw new IllegalArgumentException("Unknown settings fingerprint " + fingerprint);
+      return template.Clone();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public CodeEngineSessionSettings NewSettings(Map<String, String> options) {
+    return NewSettings(Intern(options));
+  }
+
+  /**
+   * Number of distinct templates.
+   */
+  public int GetSize() {
+    lock.readLock().lock();
+    try {
+      return templates.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long GetHitCount() {
+    return hitCount.get();
+  }
+
+  public long GetMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Deletes the templates once the copies being made are complete.
+   */
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      closed = true;
+      for (CodeEngineSessionSettings template : templates.values())
+        template.delete();
+      templates.clear();
+      overrides.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Returns the default settings of engine with options applied
+  static CodeEngineSessionSettings Apply(CodeEngine engine, Map<String, String> options) {
+    CodeEngineSessionSettings settings = engine.GetDefaultSessionSettings();
+    boolean ok = false;
+    try {
+      for (Map.Entry<String, String> option : options.entrySet()) {
+        try {
+          settings.SetOption(option.getKey(), option.getValue());
+        } catch (Exception e) {
+          throw new IllegalArgumentException("Invalid option " + option.getKey() + "=" +
+                                             option.getValue() + ": " + e.getMessage(), e);
+        }
+      }
+      ok = true;
+      return settings;
+    } finally {
+      if (!ok)
+        settings.delete();
+    }
+  }
+
+  // Takes over settings, deleting them if the cache is closed or holds
+  // equal settings already; records override_key when not null
+  private void Store(SettingsFingerprint fingerprint, CodeEngineSessionSettings settings,
+                     SettingsFingerprint override_key) {
+    boolean stored = false;
+    lock.writeLock().lock();
+    try {
+      EnsureOpen();
+      if (!templates.containsKey(fingerprint)) {
+        templates.put(fingerprint, settings);
+        stored = true;
+      }
+      if (override_key != null)
+        overrides.put(override_key, fingerprint);
+    } finally {
+      lock.writeLock().unlock();
+      if (!stored)
+        settings.delete();
+    }
+  }
+
+  // Must be called with lock held
+  private void EnsureOpen() {
+    if (closed)
+      throw new IllegalStateException("Settings template cache is closed");
+  }
+
+}
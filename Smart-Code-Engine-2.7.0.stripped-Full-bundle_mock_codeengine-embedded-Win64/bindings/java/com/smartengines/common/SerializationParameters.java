@@ -8,12 +8,26 @@
 
 package com.smartengines.common;
 
-public class SerializationParameters {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class SerializationParameters implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<SerializationParameters> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(SerializationParameters.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnisecommonJNI.delete_SerializationParameters(cPtr);
+    }
+  };
 
   public SerializationParameters(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -33,21 +47,25 @@ public class SerializationParameters {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnisecommonJNI.delete_SerializationParameters(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public SerializationParameters() {
     this(jnisecommonJNI.new_SerializationParameters__SWIG_0(), true);
   }
@@ -76,6 +94,18 @@ public class SerializationParameters {
     return new StringsSetIterator(jnisecommonJNI.SerializationParameters_IgnoredObjectTypesEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<StringsSetIterator> IgnoredObjectTypes() {
+    return new NativeRange<StringsSetIterator>() {
+      protected StringsSetIterator Begin() {
+        return IgnoredObjectTypesBegin();
+      }
+
+      protected StringsSetIterator End() {
+        return IgnoredObjectTypesEnd();
+      }
+    };
+  }
+
   public boolean HasIgnoredKey(String key) {
     return jnisecommonJNI.SerializationParameters_HasIgnoredKey(swigCPtr, this, key);
   }
@@ -96,4 +126,16 @@ public class SerializationParameters {
     return new StringsSetIterator(jnisecommonJNI.SerializationParameters_IgnoredKeysEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<StringsSetIterator> IgnoredKeys() {
+    return new NativeRange<StringsSetIterator>() {
+      protected StringsSetIterator Begin() {
+        return IgnoredKeysBegin();
+      }
+
+      protected StringsSetIterator End() {
+        return IgnoredKeysEnd();
+      }
+    };
+  }
+
 }
@@ -8,12 +8,26 @@
 
 package com.smartengines.common;
 
-public class StringsSet {
-  private transient long swigCPtr;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+public class StringsSet implements AutoCloseable {
+  private transient volatile long swigCPtr;
   protected transient boolean swigCMemOwn;
+  private transient NativeCleaner.Cleanable swigCleanable;
+
+  private static final AtomicLongFieldUpdater<StringsSet> swigCPtrUpdater =
+      AtomicLongFieldUpdater.newUpdater(StringsSet.class, "swigCPtr");
+
+  private static final NativeCleaner.Deallocator swigDeallocator = new NativeCleaner.Deallocator() {
+    public void Deallocate(long cPtr) {
+      jnisecommonJNI.delete_StringsSet(cPtr);
+    }
+  };
 
   public StringsSet(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
+    if (cMemoryOwn && cPtr != 0)
+      swigCleanable = NativeCleaner.Register(this, cPtr, swigDeallocator);
     swigCPtr = cPtr;
   }
 
@@ -33,21 +47,25 @@ public class StringsSet {
     return ptr;
   }
 
-  @SuppressWarnings("deprecation")
-  protected void finalize() {
-    delete();
-  }
-
-  public synchronized void delete() {
-    if (swigCPtr != 0) {
-      if (swigCMemOwn) {
-        swigCMemOwn = false;
-        jnisecommonJNI.delete_StringsSet(swigCPtr);
+  public void delete() {
+    long cPtr = swigCPtr;
+    if (cPtr != 0 && swigCPtrUpdater.compareAndSet(this, cPtr, 0)) {
+      NativeCleaner.Cleanable cleanable = swigCleanable;
+      swigCleanable = null;
+      if (cleanable != null) {
+        if (swigCMemOwn)
+          cleanable.Clean();
+        else
+          cleanable.Cancel();
       }
-      swigCPtr = 0;
+      swigCMemOwn = false;
     }
   }
 
+  public void close() {
+    delete();
+  }
+
   public int GetStringsCount() {
     return jnisecommonJNI.StringsSet_GetStringsCount(swigCPtr, this);
   }
@@ -64,4 +82,16 @@ public class StringsSet {
     return new StringsSetIterator(jnisecommonJNI.StringsSet_StringsEnd(swigCPtr, this), true);
   }
 
+  public NativeRange<StringsSetIterator> Strings() {
+    return new NativeRange<StringsSetIterator>() {
+      protected StringsSetIterator Begin() {
+        return StringsBegin();
+      }
+
+      protected StringsSetIterator End() {
+        return StringsEnd();
+      }
+    };
+  }
+
 }